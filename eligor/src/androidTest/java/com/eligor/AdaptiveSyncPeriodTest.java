@@ -0,0 +1,73 @@
+package com.eligor;
+
+import android.accounts.Account;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @since 2026/10/17
+ */
+public class AdaptiveSyncPeriodTest extends AndroidTestCase {
+    private final List<Integer> mApplied = new ArrayList<Integer>();
+    private IPeriodicSyncManager mManager;
+    private AdaptiveSyncPeriod mAdaptiveSyncPeriod;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mManager = new MockPeriodicSyncManager(new Account("account", "type"), "authority");
+        mAdaptiveSyncPeriod = new AdaptiveSyncPeriod(new AdaptiveSyncPeriod.Applier() {
+            @Override
+            public void apply(IPeriodicSyncManager manager, int period, Bundle args) {
+                mApplied.add(period);
+            }
+        });
+        mAdaptiveSyncPeriod.setDefaultBounds(60, 480);
+        mAdaptiveSyncPeriod.onSyncPeriodApplied(mManager, 120, null);
+    }
+
+    public void testLengthensWhileEmpty() throws Exception {
+        for (int i = 0; i < AdaptiveSyncPeriod.EMPTY_RUNS_TO_LENGTHEN * 3; i++) {
+            mAdaptiveSyncPeriod.onResult(mManager, changed(0));
+        }
+        assertEquals(2, mApplied.size());
+        assertEquals(240, (int) mApplied.get(0));
+        assertEquals(480, (int) mApplied.get(1));
+        assertEquals(480, mAdaptiveSyncPeriod.getPeriod("authority"));
+    }
+
+    public void testShortensWhileBusy() throws Exception {
+        for (int i = 0; i < AdaptiveSyncPeriod.BUSY_RUNS_TO_SHORTEN * 3; i++) {
+            mAdaptiveSyncPeriod.onResult(mManager, changed(10));
+        }
+        assertEquals(1, mApplied.size());
+        assertEquals(60, (int) mApplied.get(0));
+    }
+
+    public void testMixedAndFailedRunsKeepPeriod() throws Exception {
+        FallbackResult failed = new FallbackResult.Builder().setErrorClass(FallbackResult.ErrorClass.PERMANENT).build();
+        for (int i = 0; i < 10; i++) {
+            mAdaptiveSyncPeriod.onResult(mManager, changed(0));
+            mAdaptiveSyncPeriod.onResult(mManager, failed);
+            mAdaptiveSyncPeriod.onResult(mManager, new FallbackResult.Builder().build());
+            mAdaptiveSyncPeriod.onResult(mManager, changed(1));
+        }
+        assertTrue(mApplied.isEmpty());
+        assertEquals(120, mAdaptiveSyncPeriod.getPeriod("authority"));
+    }
+
+    public void testDisabledWithoutBounds() throws Exception {
+        mAdaptiveSyncPeriod.setDefaultBounds(AdaptiveSyncPeriod.DISABLED, AdaptiveSyncPeriod.DISABLED);
+        for (int i = 0; i < 10; i++) {
+            mAdaptiveSyncPeriod.onResult(mManager, changed(0));
+        }
+        assertTrue(mApplied.isEmpty());
+    }
+
+    private static FallbackResult changed(int items) {
+        return new FallbackResult.Builder().setItemsChanged(items).build();
+    }
+}
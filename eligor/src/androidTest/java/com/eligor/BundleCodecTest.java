@@ -0,0 +1,88 @@
+package com.eligor;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @since 2026/10/17
+ */
+public class BundleCodecTest extends AndroidTestCase {
+    public void testRoundTrip() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean("boolean", true);
+        bundle.putInt("int", -1);
+        bundle.putLong("long", Long.MAX_VALUE);
+        bundle.putDouble("double", 0.5);
+        bundle.putString("string", "\u540c\u671f");
+        bundle.putString("null", null);
+        bundle.putByteArray("bytes", new byte[] { 1, 2, 3 });
+        bundle.putStringArray("strings", new String[] { "a", null });
+        ArrayList<Integer> integers = new ArrayList<Integer>(Arrays.asList(1, null, 3));
+        bundle.putIntegerArrayList("integers", integers);
+        Bundle nested = new Bundle();
+        nested.putFloat("float", 1.5f);
+        bundle.putBundle("nested", nested);
+
+        Bundle decoded = decode(encode(bundle));
+        assertTrue(Bundles.equals(bundle, decoded));
+        assertEquals(Bundles.fingerprint(bundle), Bundles.fingerprint(decoded));
+        assertNull(decode(encode(null)));
+        assertEquals(0, decode(encode(new Bundle())).size());
+    }
+
+    public void testEncodingIsDeterministic() throws Exception {
+        Bundle a = new Bundle();
+        a.putInt("x", 1);
+        a.putInt("y", 2);
+        Bundle b = new Bundle();
+        b.putInt("y", 2);
+        b.putInt("x", 1);
+        assertTrue(Arrays.equals(encode(a), encode(b)));
+    }
+
+    public void testUnsupportedValue() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putSerializable("serializable", new java.util.Date());
+        assertFalse(BundleCodec.isEncodable(bundle));
+        try {
+            encode(bundle);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testMalformedLength() throws Exception {
+        // a bundle of an int array under "k", whose length is null.
+        assertMalformed(new byte[] { 2, 2, 'k', 15, 0 });
+        // the same, whose length is far beyond the input.
+        assertMalformed(new byte[] { 2, 2, 'k', 15, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 });
+        // a string list whose length is beyond the input.
+        assertMalformed(new byte[] { 2, 2, 'k', 20, 100 });
+    }
+
+    private static void assertMalformed(byte[] bytes) throws Exception {
+        try {
+            BundleCodec.decode(bytes);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] encode(Bundle bundle) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BundleCodec.write(new DataOutputStream(bytes), bundle);
+        return bytes.toByteArray();
+    }
+
+    private static Bundle decode(byte[] bytes) throws Exception {
+        return BundleCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
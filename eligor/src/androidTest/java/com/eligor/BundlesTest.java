@@ -0,0 +1,68 @@
+package com.eligor;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * @since 2026/10/17
+ */
+public class BundlesTest extends AndroidTestCase {
+    public void testEquals() throws Exception {
+        assertTrue(Bundles.equals(null, new Bundle()));
+
+        Bundle a = new Bundle();
+        a.putString("string", "value");
+        a.putIntArray("array", new int[] { 1, 2, 3 });
+        Bundle nested = new Bundle();
+        nested.putLong("long", 1L);
+        a.putBundle("nested", nested);
+
+        Bundle b = new Bundle();
+        b.putString("string", "value");
+        b.putIntArray("array", new int[] { 1, 2, 3 });
+        Bundle otherNested = new Bundle();
+        otherNested.putLong("long", 1L);
+        b.putBundle("nested", otherNested);
+
+        assertTrue(Bundles.equals(a, b));
+        assertEquals(Bundles.fingerprint(a), Bundles.fingerprint(b));
+
+        b.putIntArray("array", new int[] { 1, 2 });
+        assertFalse(Bundles.equals(a, b));
+        assertFalse(Bundles.fingerprint(a) == Bundles.fingerprint(b));
+    }
+
+    public void testFingerprintDistinguishesTypes() throws Exception {
+        Bundle a = new Bundle();
+        a.putString("key", "1");
+        Bundle b = new Bundle();
+        b.putInt("key", 1);
+        assertFalse(Bundles.equals(a, b));
+        assertFalse(Bundles.fingerprint(a) == Bundles.fingerprint(b));
+        assertEquals(Bundles.fingerprint(null), Bundles.fingerprint(new Bundle()));
+    }
+
+    public void testFingerprintStability() throws Exception {
+        Bundle nested = new Bundle();
+        nested.putLongArray("longs", new long[] { 1L, 2L });
+        ArrayList<String> strings = new ArrayList<String>();
+        strings.add("a");
+        strings.add(null);
+        Bundle bundle = new Bundle();
+        bundle.putString("string", "value");
+        bundle.putDouble("double", 1.5);
+        bundle.putStringArray("strings", new String[] { "a", "b" });
+        bundle.putStringArrayList("list", strings);
+        bundle.putBundle("nested", nested);
+        assertTrue(Bundles.isFingerprintStable(null));
+        assertTrue(Bundles.isFingerprintStable(bundle));
+
+        // printed by the identity in another process.
+        nested.putSerializable("object", new Date(0L));
+        assertFalse(Bundles.isFingerprintStable(bundle));
+        assertFalse(SyncState.EMPTY.withPeriod(3600, bundle).hasExtrasFingerprint());
+    }
+}
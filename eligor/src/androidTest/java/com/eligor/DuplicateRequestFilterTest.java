@@ -0,0 +1,66 @@
+package com.eligor;
+
+import android.accounts.Account;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+/**
+ * @since 2026/10/17
+ */
+public class DuplicateRequestFilterTest extends AndroidTestCase {
+    private static final String MOCK_ACCOUNT_NAME = "account";
+    private static final String MOCK_ACCOUNT_TYPE = "type";
+    private static final String MOCK_AUTHORITY = "authority";
+    private SyncStatusCache mStatusCache;
+    private DuplicateRequestFilter mFilter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStatusCache = new SyncStatusCache();
+        mFilter = new DuplicateRequestFilter(mStatusCache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStatusCache.release();
+        super.tearDown();
+    }
+
+    public void testDisabledByDefault() throws Exception {
+        assertTrue(mFilter.acceptFallbackRequest(MOCK_AUTHORITY, null));
+        assertTrue(mFilter.acceptFallbackRequest(MOCK_AUTHORITY, null));
+        assertEquals(0, mFilter.getSuppressedCount());
+    }
+
+    public void testFallbackDuplicates() throws Exception {
+        mFilter.setEnabled(true);
+        Bundle args = new Bundle();
+        args.putString("key", "value");
+
+        assertTrue(mFilter.acceptFallbackRequest(MOCK_AUTHORITY, args));
+        assertFalse(mFilter.acceptFallbackRequest(MOCK_AUTHORITY, new Bundle(args)));
+        assertTrue(mFilter.acceptFallbackRequest(MOCK_AUTHORITY, null));
+        assertEquals(1, mFilter.getSuppressedCount());
+
+        mFilter.onFallbackDequeued(MOCK_AUTHORITY, args);
+        assertTrue(mFilter.acceptFallbackRequest(MOCK_AUTHORITY, args));
+    }
+
+    public void testSyncDuplicatesWhilePending() throws Exception {
+        mFilter.setEnabled(true);
+        MockPeriodicSyncManager manager = new MockPeriodicSyncManager(new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE), MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncPending() {
+                return true;
+            }
+        };
+
+        assertTrue(mFilter.acceptSyncRequest(manager, null));
+        assertFalse(mFilter.acceptSyncRequest(manager, null));
+        Bundle args = new Bundle();
+        args.putString("key", "value");
+        assertTrue(mFilter.acceptSyncRequest(manager, args));
+        assertEquals(1, mFilter.getSuppressedCount());
+    }
+}
@@ -4,7 +4,10 @@ import android.accounts.Account;
 import android.os.Bundle;
 import android.test.AndroidTestCase;
 
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author KeithYokoma
@@ -612,4 +615,108 @@ public class EligorTest extends AndroidTestCase {
         assertTrue(mEligor.isSyncable(MOCK_AUTHORITY));
         mLatch.await();
     }
+
+    public void testSnapshot() throws Exception {
+        MockPeriodicSyncManager manager = new MockPeriodicSyncManager(mMockAccount,
+                MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncable() {
+                return true;
+            }
+
+            @Override
+            public boolean isSyncEnabled() {
+                return true;
+            }
+
+            @Override
+            public boolean isSyncActive() {
+                return false;
+            }
+
+            @Override
+            public boolean isSyncPending() {
+                return true;
+            }
+        };
+        mEligor.registerPeriodicSyncManager(manager);
+
+        Map<String, SyncStatus> snapshot = mEligor.snapshot();
+        assertEquals(1, snapshot.size());
+        SyncStatus status = snapshot.get(MOCK_AUTHORITY);
+        assertNotNull(status);
+        assertTrue(status.isSyncable());
+        assertTrue(status.isSyncEnabled());
+        assertFalse(status.isSyncActive());
+        assertTrue(status.isSyncPending());
+        assertEquals(SyncStatus.PERIOD_UNKNOWN, status.getSyncPeriod());
+        assertEquals(0L, status.getLastFallbackRun());
+    }
+
+    public void testEdit() throws Exception {
+        final CountDownLatch mLatch = new CountDownLatch(2);
+        MockPeriodicSyncManager manager = new MockPeriodicSyncManager(mMockAccount,
+                MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncable() {
+                return true;
+            }
+
+            @Override
+            public boolean isSyncEnabled() {
+                return true; // so enableSync() must be skipped
+            }
+
+            @Override
+            public void setNotSyncable() {
+                mLatch.countDown();
+            }
+
+            @Override
+            public void applySyncPeriod(int period) {
+                assertEquals(1001, period);
+                mLatch.countDown();
+            }
+        };
+        mEligor.registerPeriodicSyncManager(manager);
+
+        mEligor.edit()
+                .setSyncable(MOCK_AUTHORITY)
+                .enableSync()
+                .setNotSyncable(MOCK_AUTHORITY)
+                .applySyncPeriod(1001)
+                .setSyncable("some_authority")
+                .commit();
+        assertEquals(0, mLatch.getCount());
+    }
+
+    public void testCoalescing() throws Exception {
+        final CountDownLatch mLatch = new CountDownLatch(1);
+        final AtomicInteger mCount = new AtomicInteger();
+        MockPeriodicSyncManager manager = new MockPeriodicSyncManager(mMockAccount,
+                MOCK_AUTHORITY) {
+            @Override
+            public void requestSync(Bundle args) {
+                mCount.incrementAndGet();
+                assertEquals("first", args.getString("first"));
+                assertEquals("second", args.getString("second"));
+                mLatch.countDown();
+            }
+        };
+        mEligor.registerPeriodicSyncManager(manager);
+        mEligor.setCoalescingWindow(MOCK_AUTHORITY, 200L);
+
+        Bundle first = new Bundle();
+        first.putString("first", "first");
+        Bundle second = new Bundle();
+        second.putString("second", "second");
+        mEligor.requestSync(MOCK_AUTHORITY, first);
+        mEligor.requestSync(MOCK_AUTHORITY, second);
+        mEligor.requestSync(MOCK_AUTHORITY, second);
+        assertEquals(0, mCount.get());
+
+        assertTrue(mLatch.await(1, TimeUnit.SECONDS));
+        Thread.sleep(300L);
+        assertEquals(1, mCount.get());
+    }
 }
@@ -0,0 +1,60 @@
+package com.eligor;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @since 2026/10/17
+ */
+public class FallbackBackoffTest extends AndroidTestCase {
+    private static final long BASE = 1000L;
+    private static final long MAX = 30000L;
+    private FallbackBackoff mBackoff;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FallbackExecutorConfig config = new FallbackExecutorConfig.Builder()
+                .setMaxRetries(8)
+                .setRetryBackoff(BASE, MAX, TimeUnit.MILLISECONDS)
+                .build();
+        mBackoff = new FallbackBackoff(config, new Random(0L));
+    }
+
+    public void testDelayGrowsWithinJitterAndCap() throws Exception {
+        long ceiling = BASE;
+        for (int attempt = 1; attempt <= 8; attempt++) {
+            long delay = mBackoff.nextDelay("authority", RetryableSyncException.NO_RETRY_AFTER);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            assertEquals(attempt, mBackoff.getAttempts("authority"));
+            ceiling = Math.min(ceiling * 2, MAX);
+        }
+        assertEquals(FallbackBackoff.GIVE_UP, mBackoff.nextDelay("authority", RetryableSyncException.NO_RETRY_AFTER));
+        assertEquals(0, mBackoff.getAttempts("authority"));
+    }
+
+    public void testRetryAfterIsHonored() throws Exception {
+        assertEquals(60000L, mBackoff.nextDelay("authority", 60000L));
+    }
+
+    public void testAuthoritiesAreIndependent() throws Exception {
+        mBackoff.nextDelay("a", RetryableSyncException.NO_RETRY_AFTER);
+        mBackoff.nextDelay("a", RetryableSyncException.NO_RETRY_AFTER);
+        mBackoff.nextDelay("b", RetryableSyncException.NO_RETRY_AFTER);
+        assertEquals(2, mBackoff.getAttempts("a"));
+        assertEquals(1, mBackoff.getAttempts("b"));
+
+        mBackoff.reset("a");
+        assertEquals(0, mBackoff.getAttempts("a"));
+        long delay = mBackoff.nextDelay("a", RetryableSyncException.NO_RETRY_AFTER);
+        assertTrue(delay <= BASE);
+    }
+
+    public void testNoRetry() throws Exception {
+        FallbackBackoff backoff = new FallbackBackoff(new FallbackExecutorConfig.Builder()
+                .setMaxRetries(FallbackExecutorConfig.NO_RETRY).build());
+        assertEquals(FallbackBackoff.GIVE_UP, backoff.nextDelay("authority", RetryableSyncException.NO_RETRY_AFTER));
+    }
+}
@@ -0,0 +1,91 @@
+package com.eligor;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * @since 2026/10/17
+ */
+public class FallbackJournalTest extends AndroidTestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("eligor", ".journal");
+        assertTrue(mFile.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testRecoversRunsNotCompleted() throws Exception {
+        FallbackJournal journal = FallbackJournal.open(mFile);
+        assertNotNull(journal);
+        Bundle extras = new Bundle();
+        extras.putString("key", "value");
+        long first = journal.append("authority", extras);
+        long second = journal.append("authority", null);
+        long other = journal.append("other", null);
+        journal.complete(second);
+        journal.close();
+
+        FallbackJournal reopened = FallbackJournal.open(mFile);
+        assertNotNull(reopened);
+        assertEquals(2, reopened.size());
+        List<FallbackJournal.Entry> entries = reopened.takeRecovered("authority");
+        assertEquals(1, entries.size());
+        assertEquals(first, entries.get(0).getId());
+        assertEquals("value", entries.get(0).getExtras().getString("key"));
+        assertTrue(reopened.takeRecovered("authority").isEmpty());
+
+        List<FallbackJournal.Entry> others = reopened.takeRecovered("other");
+        assertEquals(other, others.get(0).getId());
+        assertTrue(reopened.append("authority", null) > other);
+        reopened.close();
+    }
+
+    public void testTornTailIsIgnored() throws Exception {
+        FallbackJournal journal = FallbackJournal.open(mFile);
+        assertNotNull(journal);
+        journal.append("authority", null);
+        journal.append("authority", null);
+        journal.close();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+        FallbackJournal reopened = FallbackJournal.open(mFile);
+        assertNotNull(reopened);
+        assertEquals(1, reopened.takeRecovered("authority").size());
+        reopened.close();
+    }
+
+    public void testCompaction() throws Exception {
+        FallbackJournal journal = FallbackJournal.open(mFile);
+        assertNotNull(journal);
+        long kept = journal.append("authority", null);
+        for (int i = 0; i < 1000; i++) {
+            journal.complete(journal.append("authority", null));
+        }
+        journal.close();
+        assertTrue("journal is not compacted: " + mFile.length(), mFile.length() < 1000 * 20);
+
+        FallbackJournal reopened = FallbackJournal.open(mFile);
+        assertNotNull(reopened);
+        List<FallbackJournal.Entry> entries = reopened.takeRecovered("authority");
+        assertEquals(1, entries.size());
+        assertEquals(kept, entries.get(0).getId());
+        reopened.close();
+    }
+}
@@ -0,0 +1,327 @@
+package com.eligor;
+
+import android.accounts.Account;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @since 2026/10/17
+ */
+public class FallbackLanesTest extends AndroidTestCase {
+    private static final String MOCK_ACCOUNT_NAME = "account";
+    private static final String MOCK_ACCOUNT_TYPE = "type";
+    private static final FallbackSyncDispatcher.Listener NO_OP_LISTENER = new FallbackSyncDispatcher.Listener() {
+        @Override
+        public void onFallbackStart(IPeriodicSyncManager manager, Bundle extras) {
+        }
+
+        @Override
+        public void onFallbackFinish(IPeriodicSyncManager manager, Bundle extras, long journalId, boolean succeeded) {
+        }
+
+        @Override
+        public void onFallbackResult(IPeriodicSyncManager manager, FallbackResult result) {
+        }
+
+        @Override
+        public void onFallbackRetry(IPeriodicSyncManager manager, List<Bundle> extrasList, RetryableSyncException e) {
+        }
+
+        @Override
+        public void onFallbackDiscard(IPeriodicSyncManager manager, Bundle extras, long journalId) {
+        }
+
+        @Override
+        public void onFallbackCancel(IPeriodicSyncManager manager, Bundle extras, long journalId) {
+        }
+    };
+    private Account mMockAccount;
+    private FallbackRunnableExecutor mExecutor;
+    private SyncTimer mTimer;
+    private FallbackLanes mLanes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockAccount = new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE);
+        mExecutor = new FallbackRunnableExecutor(FallbackExecutorConfig.DEFAULT);
+        mTimer = new SyncTimer();
+        mLanes = new FallbackLanes(mExecutor, mTimer, FallbackExecutorConfig.DEFAULT_LANE_CAPACITY, 4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTimer.shutdown();
+        mExecutor.shutdown();
+        super.tearDown();
+    }
+
+    public void testRunsOfAnAuthorityAreSerial() throws Exception {
+        final int runs = 30;
+        final CountDownLatch latch = new CountDownLatch(runs);
+        final AtomicInteger concurrency = new AtomicInteger();
+        final AtomicInteger maxConcurrency = new AtomicInteger();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        SimplePeriodicSyncManager manager = new SimplePeriodicSyncManager(mMockAccount, "authority", new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                int current = concurrency.incrementAndGet();
+                maxConcurrency.set(Math.max(maxConcurrency.get(), current));
+                order.add(extras.getInt("index"));
+                try {
+                    Thread.sleep(5L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                concurrency.decrementAndGet();
+                latch.countDown();
+            }
+        });
+
+        for (int i = 0; i < runs; i++) {
+            Bundle extras = new Bundle();
+            extras.putInt("index", i);
+            assertTrue(mLanes.submit(new FallbackSyncDispatcher(manager, extras, NO_OP_LISTENER)));
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxConcurrency.get());
+        for (int i = 0; i < runs; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    public void testSlowAuthorityDoesNotBlockOthers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        SimplePeriodicSyncManager slow = new SimplePeriodicSyncManager(mMockAccount, "slow", new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        SimplePeriodicSyncManager fast = new SimplePeriodicSyncManager(mMockAccount, "fast", new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                fastDone.countDown();
+            }
+        });
+
+        // far more than the pool queue capacity, but they only take one slot as a lane.
+        for (int i = 0; i < FallbackExecutorConfig.DEFAULT_QUEUE_CAPACITY * 5; i++) {
+            assertTrue(mLanes.submit(new FallbackSyncDispatcher(slow, null, NO_OP_LISTENER)));
+        }
+        assertTrue(mLanes.submit(new FallbackSyncDispatcher(fast, null, NO_OP_LISTENER)));
+        assertTrue(fastDone.await(1, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    public void testEvictedLaneKeepsItsBacklog() throws Exception {
+        FallbackRunnableExecutor executor = new FallbackRunnableExecutor(new FallbackExecutorConfig.Builder()
+                .setCorePoolSize(1).setMaxPoolSize(1).setQueueCapacity(1)
+                .setRejectionPolicy(FallbackExecutorConfig.RejectionPolicy.DISCARD_OLDEST).build());
+        FallbackLanes lanes = new FallbackLanes(executor, mTimer, FallbackExecutorConfig.DEFAULT_LANE_CAPACITY, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        SimplePeriodicSyncManager blocker = new SimplePeriodicSyncManager(mMockAccount, "blocker", new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                started.countDown();
+                await(release);
+            }
+        });
+        FallbackRunnable recorder = new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                order.add(extras.getInt("index"));
+                done.countDown();
+            }
+        };
+        SimplePeriodicSyncManager backlogged = new SimplePeriodicSyncManager(mMockAccount, "backlogged", recorder);
+        SimplePeriodicSyncManager newcomer = new SimplePeriodicSyncManager(mMockAccount, "newcomer", recorder);
+
+        assertTrue(lanes.submit(new FallbackSyncDispatcher(blocker, null, NO_OP_LISTENER)));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            Bundle extras = new Bundle();
+            extras.putInt("index", i);
+            assertTrue(lanes.submit(new FallbackSyncDispatcher(backlogged, extras, NO_OP_LISTENER)));
+        }
+        Bundle extras = new Bundle();
+        extras.putInt("index", 100);
+        // evicts the lane of the backlogged authority from the pool queue, which drops only its oldest run.
+        assertTrue(lanes.submit(new FallbackSyncDispatcher(newcomer, extras, NO_OP_LISTENER)));
+        assertEquals(2, lanes.getQueuedCount("backlogged"));
+
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(100, (int) order.get(0));
+        assertEquals(1, (int) order.get(1));
+        assertEquals(2, (int) order.get(2));
+        executor.shutdown();
+    }
+
+    public void testCancelDropsQueuedAndInterruptsRunning() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        SimplePeriodicSyncManager manager = new SimplePeriodicSyncManager(mMockAccount, "authority", new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                runs.incrementAndGet();
+                started.countDown();
+                try {
+                    Thread.sleep(10000L);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mLanes.submit(new FallbackSyncDispatcher(manager, null, NO_OP_LISTENER)));
+        }
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(5, mLanes.cancel("authority"));
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertEquals(0, mLanes.getQueuedCount("authority"));
+
+        Thread.sleep(100L);
+        assertEquals(1, runs.get());
+        assertEquals(0, mLanes.cancel("authority"));
+    }
+
+    public void testDeadlineKeepsLaneUntilRunReturns() throws Exception {
+        final CountDownLatch secondRun = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicLong firstReturned = new AtomicLong();
+        final AtomicLong secondStarted = new AtomicLong();
+        SimplePeriodicSyncManager manager = new SimplePeriodicSyncManager(mMockAccount, "authority", new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                if (runs.incrementAndGet() == 1) {
+                    // hangs, ignoring the interruption
+                    long until = System.currentTimeMillis() + 300L;
+                    while (System.currentTimeMillis() < until) {
+                        Thread.yield();
+                    }
+                    firstReturned.set(System.nanoTime());
+                } else {
+                    secondStarted.set(System.nanoTime());
+                    secondRun.countDown();
+                }
+            }
+        });
+        mLanes.setDeadline("authority", 50L);
+
+        assertTrue(mLanes.submit(new FallbackSyncDispatcher(manager, null, NO_OP_LISTENER)));
+        assertTrue(mLanes.submit(new FallbackSyncDispatcher(manager, null, NO_OP_LISTENER)));
+        assertFalse(secondRun.await(150L, TimeUnit.MILLISECONDS));
+        assertEquals(1, mLanes.getTimeoutCount("authority"));
+        assertEquals(1, mLanes.getTimeoutCount());
+        assertTrue(secondRun.await(1, TimeUnit.SECONDS));
+        assertTrue(firstReturned.get() != 0L && firstReturned.get() <= secondStarted.get());
+    }
+
+    public void testBatch() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(10);
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        SimplePeriodicSyncManager manager = new SimplePeriodicSyncManager(mMockAccount, "authority", new BatchFallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                await(release);
+                batchSizes.add(1);
+                order.add(extras.getInt("index"));
+                done.countDown();
+            }
+
+            @Override
+            public void onPerformSyncBatch(List<Bundle> extrasList) {
+                batchSizes.add(extrasList.size());
+                for (Bundle extras : extrasList) {
+                    order.add(extras.getInt("index"));
+                    done.countDown();
+                }
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            Bundle extras = new Bundle();
+            extras.putInt("index", i);
+            assertTrue(mLanes.submit(new FallbackSyncDispatcher(manager, extras, NO_OP_LISTENER)));
+        }
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        // the runs queued while the lane is busy come in batches of at most the max size.
+        int total = 0;
+        int maxSize = 0;
+        for (int size : batchSizes) {
+            total += size;
+            maxSize = Math.max(maxSize, size);
+        }
+        assertEquals(10, total);
+        assertEquals(4, maxSize);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    public void testShutdownDrainsQueuedRuns() throws Exception {
+        assertEquals(3, runAndShutdown(false));
+    }
+
+    public void testShutdownHandsOverJournaledRuns() throws Exception {
+        // the run not in the journal still drains.
+        assertEquals(2, runAndShutdown(true));
+    }
+
+    private int runAndShutdown(boolean handOver) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        SimplePeriodicSyncManager manager = new SimplePeriodicSyncManager(mMockAccount, "authority", new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                runs.incrementAndGet();
+                started.countDown();
+                await(release);
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            long journalId = i == 1 ? 1L : FallbackJournal.NO_ID;
+            assertTrue(mLanes.submit(new FallbackSyncDispatcher(manager, null, journalId, NO_OP_LISTENER)));
+        }
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(handOver ? 1 : 0, mLanes.shutdown(handOver));
+        assertFalse(mLanes.submit(new FallbackSyncDispatcher(manager, null, NO_OP_LISTENER)));
+        mExecutor.shutdown();
+        release.countDown();
+        assertTrue(mExecutor.awaitTermination(1000L));
+        return runs.get();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.eligor;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @since 2026/10/17
+ */
+public class FallbackRunnableExecutorTest extends AndroidTestCase {
+    public void testAdaptivePoolGrowsUnderQueueWait() throws Exception {
+        FallbackExecutorConfig config = new FallbackExecutorConfig.Builder()
+                .setCorePoolSize(1)
+                .setMaxPoolSize(4)
+                .setQueueCapacity(FallbackExecutorConfig.UNBOUNDED_QUEUE)
+                .setAdaptivePoolSize(true)
+                .setTargetQueueWait(10L, TimeUnit.MILLISECONDS)
+                .build();
+        FallbackRunnableExecutor executor = new FallbackRunnableExecutor(config);
+        final CountDownLatch done = new CountDownLatch(60);
+        try {
+            for (int i = 0; i < 60; i++) {
+                assertTrue(executor.process(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(50L);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        done.countDown();
+                    }
+                }));
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue("core pool size: " + executor.getCorePoolSize(), executor.getCorePoolSize() > 1);
+            assertTrue(executor.getCorePoolSize() <= 4);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testFixedPoolDoesNotGrow() throws Exception {
+        FallbackExecutorConfig config = new FallbackExecutorConfig.Builder()
+                .setCorePoolSize(1)
+                .setMaxPoolSize(4)
+                .setQueueCapacity(FallbackExecutorConfig.UNBOUNDED_QUEUE)
+                .build();
+        FallbackRunnableExecutor executor = new FallbackRunnableExecutor(config);
+        final CountDownLatch done = new CountDownLatch(20);
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(executor.process(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(20L);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        done.countDown();
+                    }
+                }));
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(1, executor.getCorePoolSize());
+            assertTrue(executor.getAverageQueueWaitMillis() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
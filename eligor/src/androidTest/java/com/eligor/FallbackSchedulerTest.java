@@ -0,0 +1,125 @@
+package com.eligor;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * @since 2026/10/17
+ */
+public class FallbackSchedulerTest extends AndroidTestCase {
+    private static final String MOCK_ACCOUNT_NAME = "account";
+    private static final String MOCK_ACCOUNT_TYPE = "type";
+    private static final int PERIOD = 1;
+    private static final long FIRE_TIMEOUT_MILLIS = 3 * FallbackScheduler.DEFAULT_TICK_MILLIS + PERIOD * 1000L;
+    private boolean mMasterSyncEnabled;
+    private SyncTimer mTimer;
+    private FallbackScheduler mScheduler;
+    private CountDownLatch mFired;
+    private AtomicInteger mDispatched;
+    private PeriodicManager mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMasterSyncEnabled = ContentResolver.getMasterSyncAutomatically();
+        setMasterSyncEnabled(false);
+        mTimer = new SyncTimer();
+        mFired = new CountDownLatch(1);
+        mDispatched = new AtomicInteger();
+        mScheduler = new FallbackScheduler(mTimer, MasterSyncState.getInstance(), new FallbackRunLog(), new FallbackScheduler.Dispatcher() {
+            @Override
+            public void dispatch(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle args) {
+                mDispatched.incrementAndGet();
+                mFired.countDown();
+            }
+        });
+        mManager = new PeriodicManager(new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE), "authority");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mScheduler.release();
+        mTimer.shutdown();
+        setMasterSyncEnabled(mMasterSyncEnabled);
+        super.tearDown();
+    }
+
+    public void testArmsWhileMasterSyncIsDisabled() throws Exception {
+        mManager.applySyncPeriod(PERIOD);
+        mScheduler.onSyncPeriodApplied(mManager, PERIOD, null, true);
+
+        assertTrue(mScheduler.isRunning());
+        assertTrue(mFired.await(FIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    public void testStopsWhenMasterSyncIsEnabled() throws Exception {
+        mManager.applySyncPeriod(PERIOD);
+        mScheduler.onSyncPeriodApplied(mManager, PERIOD, null, true);
+        assertTrue(mScheduler.isRunning());
+
+        setMasterSyncEnabled(true);
+        mScheduler.onMasterSyncChanged(true);
+
+        assertFalse(mScheduler.isRunning());
+        assertFalse(mFired.await(FIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, mDispatched.get());
+    }
+
+    public void testDisabledAuthorityDoesNotFire() throws Exception {
+        mManager.applySyncPeriod(PERIOD);
+        mScheduler.onSyncPeriodApplied(mManager, PERIOD, null, false);
+
+        assertFalse(mFired.await(FIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, mDispatched.get());
+
+        mScheduler.setEnabled(mManager.getAuthority(), true);
+        assertTrue(mFired.await(FIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    public void testDisablingDisarmsSchedule() throws Exception {
+        mManager.applySyncPeriod(PERIOD);
+        mScheduler.onSyncPeriodApplied(mManager, PERIOD, null, true);
+        mScheduler.setEnabled(mManager.getAuthority(), false);
+
+        assertFalse(mFired.await(FIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, mDispatched.get());
+    }
+
+    public void testRefusedPeriodIsNotScheduled() throws Exception {
+        // the manager has not applied the period, e.g. because its sync is disabled.
+        mScheduler.onSyncPeriodApplied(mManager, PERIOD, null, true);
+
+        assertFalse(mFired.await(FIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, mDispatched.get());
+    }
+
+    private static void setMasterSyncEnabled(boolean enabled) {
+        ContentResolver.setMasterSyncAutomatically(enabled);
+        MasterSyncState.getInstance().invalidate();
+    }
+
+    private static class PeriodicManager extends MockPeriodicSyncManager {
+        public PeriodicManager(@Nonnull Account account, @Nonnull String authority) {
+            super(account, authority);
+        }
+
+        @Override
+        public void applySyncPeriod(int period) {
+            setSyncPeriod(period, null);
+        }
+
+        @Override
+        public void applySyncPeriod(int period, Bundle args) {
+            setSyncPeriod(period, args);
+        }
+    }
+}
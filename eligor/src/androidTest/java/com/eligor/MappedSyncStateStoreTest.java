@@ -0,0 +1,150 @@
+package com.eligor;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * @since 2026/10/17
+ */
+public class MappedSyncStateStoreTest extends AndroidTestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("eligor", ".state");
+        assertTrue(mFile.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testStatesSurviveReopen() throws Exception {
+        MappedSyncStateStore store = MappedSyncStateStore.open(mFile);
+        assertSame(store, MappedSyncStateStore.open(mFile));
+        SyncState state = SyncState.EMPTY.withEnabled(false).withPeriod(3600, 42L);
+        store.put("authority", state);
+        store.put("other", SyncState.EMPTY.withEnabled(true));
+        assertEquals(state, store.get("authority"));
+        assertEquals(SyncState.EMPTY, store.get("unknown"));
+        store.close();
+
+        MappedSyncStateStore reopened = MappedSyncStateStore.open(mFile);
+        assertNotSame(store, reopened);
+        assertEquals(state, reopened.get("authority"));
+        assertEquals(Boolean.TRUE, reopened.get("other").getEnabled());
+        assertEquals(AbstractPeriodicSyncManager.PERIOD_UNKNOWN, reopened.get("other").getPeriod());
+        assertEquals(2, reopened.getAuthorities().size());
+        reopened.close();
+    }
+
+    public void testRemoveFreesRecord() throws Exception {
+        MappedSyncStateStore store = MappedSyncStateStore.open(mFile);
+        store.put("authority", SyncState.EMPTY.withEnabled(true));
+        store.remove("authority");
+        store.put("other", SyncState.EMPTY);
+        assertTrue(store.getAuthorities().isEmpty());
+        long length = mFile.length();
+        store.put("another", SyncState.EMPTY.withEnabled(true));
+        store.close();
+
+        assertEquals(length, mFile.length());
+        MappedSyncStateStore reopened = MappedSyncStateStore.open(mFile);
+        assertEquals(SyncState.EMPTY, reopened.get("authority"));
+        assertEquals(1, reopened.getAuthorities().size());
+        reopened.close();
+    }
+
+    public void testGrowsBeyondInitialCapacity() throws Exception {
+        MappedSyncStateStore store = MappedSyncStateStore.open(mFile);
+        for (int i = 0; i < 100; i++) {
+            store.put("authority" + i, SyncState.EMPTY.withPeriod(i + 1, i));
+        }
+        store.close();
+
+        MappedSyncStateStore reopened = MappedSyncStateStore.open(mFile);
+        assertEquals(100, reopened.getAuthorities().size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 1, reopened.get("authority" + i).getPeriod());
+        }
+        reopened.close();
+    }
+
+    public void testCorruptRecordIsIgnored() throws Exception {
+        MappedSyncStateStore store = MappedSyncStateStore.open(mFile);
+        store.put("authority", SyncState.EMPTY.withPeriod(3600, 0L));
+        store.put("other", SyncState.EMPTY.withPeriod(7200, 0L));
+        store.close();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(16 + 8); // the period of the first record
+            file.writeInt(60);
+        } finally {
+            file.close();
+        }
+        MappedSyncStateStore reopened = MappedSyncStateStore.open(mFile);
+        assertEquals(SyncState.EMPTY, reopened.get("authority"));
+        assertEquals(7200, reopened.get("other").getPeriod());
+        reopened.put("authority", SyncState.EMPTY.withEnabled(true));
+        assertEquals(2, reopened.getAuthorities().size());
+        reopened.close();
+    }
+
+    public void testAuthorityTooLong() throws Exception {
+        MappedSyncStateStore store = MappedSyncStateStore.open(mFile);
+        StringBuilder authority = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            authority.append('a');
+        }
+        try {
+            store.put(authority.toString(), SyncState.EMPTY.withEnabled(true));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        store.close();
+    }
+
+    public void testExtrasSurviveReopen() throws Exception {
+        MappedSyncStateStore store = MappedSyncStateStore.open(mFile);
+        Bundle extras = new Bundle();
+        extras.putString("key", "value");
+        extras.putInt("count", 3);
+        store.put("authority", SyncState.EMPTY.withPeriod(3600, extras));
+        store.put("other", SyncState.EMPTY.withPeriod(7200, (Bundle) null));
+        store.close();
+
+        MappedSyncStateStore reopened = MappedSyncStateStore.open(mFile);
+        SyncState state = reopened.get("authority");
+        assertTrue(state.hasExtras());
+        assertTrue(Bundles.equals(extras, state.getExtras()));
+        assertEquals(Bundles.fingerprint(extras), state.getExtrasFingerprint());
+        assertEquals(0, reopened.get("other").getExtras().size());
+        reopened.close();
+    }
+
+    public void testLargeExtrasEnlargeRecords() throws Exception {
+        MappedSyncStateStore store = MappedSyncStateStore.open(mFile);
+        store.put("small", SyncState.EMPTY.withEnabled(true));
+        Bundle extras = new Bundle();
+        extras.putByteArray("payload", new byte[1000]);
+        store.put("large", SyncState.EMPTY.withPeriod(3600, extras));
+        Bundle huge = new Bundle();
+        huge.putByteArray("payload", new byte[MappedSyncStateStore.MAX_RECORD_SIZE]);
+        store.put("huge", SyncState.EMPTY.withPeriod(60, huge));
+        store.close();
+
+        MappedSyncStateStore reopened = MappedSyncStateStore.open(mFile);
+        assertEquals(Boolean.TRUE, reopened.get("small").getEnabled());
+        assertEquals(1000, reopened.get("large").getExtras().getByteArray("payload").length);
+        assertFalse(reopened.get("huge").hasExtras());
+        assertEquals(Bundles.fingerprint(huge), reopened.get("huge").getExtrasFingerprint());
+        reopened.close();
+    }
+}
@@ -11,7 +11,12 @@ import javax.annotation.Nonnull;
  */
 public class MockPeriodicSyncManager extends AbstractPeriodicSyncManager {
     public MockPeriodicSyncManager(@Nonnull Account account, @Nonnull String authority) {
-        super(account, authority);
+        super(account, authority, new FallbackRunnable() {
+            @Override
+            public void onPerformSync(Bundle extras) {
+                throw new UnsupportedOperationException();
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,73 @@
+package com.eligor;
+
+import android.accounts.Account;
+import android.test.AndroidTestCase;
+
+/**
+ * @since 2026/10/17
+ */
+public class PeriodicSyncManagerRegistryTest extends AndroidTestCase {
+    private static final String MOCK_ACCOUNT_NAME = "account";
+    private static final String MOCK_ACCOUNT_TYPE = "type";
+    private Account mMockAccount;
+    private PeriodicSyncManagerRegistry mRegistry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockAccount = new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE);
+        mRegistry = new PeriodicSyncManagerRegistry();
+    }
+
+    public void testRegisterKeepsOrderAndReplaces() throws Exception {
+        MockPeriodicSyncManager first = new MockPeriodicSyncManager(mMockAccount, "first");
+        MockPeriodicSyncManager second = new MockPeriodicSyncManager(mMockAccount, "second");
+        assertNull(mRegistry.register(first));
+        assertNull(mRegistry.register(second));
+        assertEquals(2, mRegistry.size());
+
+        MockPeriodicSyncManager replacement = new MockPeriodicSyncManager(mMockAccount, "first");
+        assertSame(first, mRegistry.register(replacement));
+        assertEquals(2, mRegistry.size());
+        assertSame(replacement, mRegistry.managers()[0]);
+        assertSame(second, mRegistry.managers()[1]);
+        assertSame(replacement, mRegistry.get("first"));
+    }
+
+    public void testSnapshotIsNotAffectedByLaterChanges() throws Exception {
+        MockPeriodicSyncManager first = new MockPeriodicSyncManager(mMockAccount, "first");
+        MockPeriodicSyncManager second = new MockPeriodicSyncManager(mMockAccount, "second");
+        mRegistry.register(first);
+        mRegistry.register(second);
+
+        IPeriodicSyncManager[] snapshot = mRegistry.managers();
+        assertSame(second, mRegistry.unregister("second"));
+        assertNull(mRegistry.unregister("second"));
+
+        assertEquals(2, snapshot.length);
+        assertEquals(1, mRegistry.size());
+        assertNull(mRegistry.get("second"));
+    }
+
+    public void testConcurrentRegistration() throws Exception {
+        final int threads = 4;
+        final int perThread = 50;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int offset = i * perThread;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        mRegistry.register(new MockPeriodicSyncManager(mMockAccount, "authority" + (offset + j)));
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread, mRegistry.size());
+    }
+}
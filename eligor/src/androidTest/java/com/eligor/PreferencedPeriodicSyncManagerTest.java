@@ -3,8 +3,15 @@ package com.eligor;
 import android.accounts.Account;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
 /**
  * @author keishin.yokomaku
  * @since 2014/04/15
@@ -21,10 +28,15 @@ public class PreferencedPeriodicSyncManagerTest extends AndroidTestCase {
     protected void setUp() throws Exception {
         super.setUp();
         mMockPreferenceContext = new MockPreferenceContext(getContext());
+        mMockPreferenceContext.getSharedPreferences(MOCK_AUTHORITY, Context.MODE_PRIVATE).edit().clear().commit();
         mDefaultEnabledManager = new PreferencedPeriodicSyncManager(
                 mMockPreferenceContext,
                 new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE),
-                MOCK_AUTHORITY, true);
+                MOCK_AUTHORITY, new FallbackRunnable() {
+                    @Override
+                    public void onPerformSync(Bundle extras) {
+                    }
+                }, true);
     }
 
     public void testSyncSettingChange() throws Exception{
@@ -36,4 +48,107 @@ public class PreferencedPeriodicSyncManagerTest extends AndroidTestCase {
         mDefaultEnabledManager.enableSync();
         assertTrue(preferences.getBoolean("enabled", false));
     }
+
+    public void testSyncPeriodDiffing() throws Exception {
+        mDefaultEnabledManager.setSyncPeriodDiffingEnabled(true);
+        Bundle args = new Bundle();
+        args.putString("key", "value");
+
+        mDefaultEnabledManager.applySyncPeriod(DEFAULT_PERIOD, args);
+        assertEquals(1, mDefaultEnabledManager.getAppliedSyncPeriodCount());
+        assertEquals(DEFAULT_PERIOD, mDefaultEnabledManager.getSyncPeriod());
+
+        Bundle same = new Bundle();
+        same.putString("key", "value");
+        mDefaultEnabledManager.applySyncPeriod(DEFAULT_PERIOD, same);
+        assertEquals(1, mDefaultEnabledManager.getAppliedSyncPeriodCount());
+        assertEquals(1, mDefaultEnabledManager.getSkippedSyncPeriodCount());
+
+        mDefaultEnabledManager.applySyncPeriod(DEFAULT_PERIOD + 1, same);
+        assertEquals(2, mDefaultEnabledManager.getAppliedSyncPeriodCount());
+        assertEquals(DEFAULT_PERIOD + 1, mDefaultEnabledManager.getSyncPeriod());
+    }
+
+    public void testStateIsLoadedOnPrefetch() throws Exception {
+        CountingStore store = new CountingStore();
+        store.put(MOCK_AUTHORITY, SyncState.EMPTY.withPeriod(DEFAULT_PERIOD, Bundles.fingerprint(null)));
+        PreferencedPeriodicSyncManager manager = new PreferencedPeriodicSyncManager(
+                new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE),
+                MOCK_AUTHORITY, new FallbackRunnable() {
+                    @Override
+                    public void onPerformSync(Bundle extras) {
+                    }
+                }, true, store);
+        final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        manager.prefetchState(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        assertEquals(0, store.mReads);
+        assertEquals(1, tasks.size());
+
+        manager.disableSync(); // doesn't need the state
+        assertEquals(0, store.mReads);
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+        assertEquals(1, store.mReads);
+        assertEquals(Boolean.FALSE, store.mStates.get(MOCK_AUTHORITY).getEnabled());
+        assertEquals(DEFAULT_PERIOD, manager.getSyncPeriod());
+        assertEquals(1, store.mReads); // cached
+    }
+
+    public void testRestoreSyncPeriod() throws Exception {
+        CountingStore store = new CountingStore();
+        Bundle extras = new Bundle();
+        extras.putString("key", "value");
+        store.put(MOCK_AUTHORITY, SyncState.EMPTY.withPeriod(DEFAULT_PERIOD, extras));
+        PreferencedPeriodicSyncManager manager = new PreferencedPeriodicSyncManager(
+                new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE),
+                MOCK_AUTHORITY, new FallbackRunnable() {
+                    @Override
+                    public void onPerformSync(Bundle extras) {
+                    }
+                }, true, store);
+        SyncState restored = manager.restoreSyncPeriod();
+        assertNotNull(restored);
+        assertEquals(DEFAULT_PERIOD, restored.getPeriod());
+        assertTrue(Bundles.equals(extras, restored.getExtras()));
+
+        manager.disableSync();
+        assertNull(manager.restoreSyncPeriod());
+    }
+
+    private static class CountingStore implements SyncStateStore {
+        private final Map<String, SyncState> mStates = new HashMap<String, SyncState>();
+        private int mReads;
+
+        @Override
+        public SyncState get(String authority) {
+            mReads++;
+            SyncState state = mStates.get(authority);
+            return state != null ? state : SyncState.EMPTY;
+        }
+
+        @Override
+        public void put(String authority, SyncState state) {
+            mStates.put(authority, state);
+        }
+
+        @Override
+        public void remove(String authority) {
+            mStates.remove(authority);
+        }
+
+        @Override
+        public Set<String> getAuthorities() {
+            return mStates.keySet();
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
 }
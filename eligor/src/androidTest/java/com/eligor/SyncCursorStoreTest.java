@@ -0,0 +1,96 @@
+package com.eligor;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * @since 2026/10/17
+ */
+public class SyncCursorStoreTest extends AndroidTestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("eligor", ".cursors");
+        assertTrue(mFile.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testCompareAndSet() throws Exception {
+        SyncCursorStore store = SyncCursorStore.open(mFile);
+        assertSame(store, SyncCursorStore.open(mFile));
+        SyncCursor cursor = store.getCursor("authority");
+        assertNull(cursor.get());
+        assertFalse(cursor.compareAndSet("1", "2"));
+        assertTrue(cursor.compareAndSet(null, "1"));
+        assertFalse(cursor.compareAndSet(null, "2"));
+        assertTrue(cursor.compareAndSet("1", "2"));
+        assertEquals("2", cursor.get());
+        assertNull(store.get("other"));
+        assertTrue(cursor.compareAndSet("2", null));
+        assertNull(cursor.get());
+        store.close();
+    }
+
+    public void testCursorsSurviveReopen() throws Exception {
+        SyncCursorStore store = SyncCursorStore.open(mFile);
+        assertTrue(store.compareAndSet("authority", null, "1"));
+        assertTrue(store.compareAndSet("authority", "1", "2"));
+        assertTrue(store.compareAndSet("other", null, "token"));
+        assertTrue(store.compareAndSet("cleared", null, "token"));
+        assertTrue(store.compareAndSet("cleared", "token", null));
+        store.close();
+
+        SyncCursorStore reopened = SyncCursorStore.open(mFile);
+        assertNotSame(store, reopened);
+        assertEquals("2", reopened.get("authority"));
+        assertEquals("token", reopened.get("other"));
+        assertNull(reopened.get("cleared"));
+        reopened.close();
+    }
+
+    public void testTornUpdateIsIgnored() throws Exception {
+        SyncCursorStore store = SyncCursorStore.open(mFile);
+        assertTrue(store.compareAndSet("authority", null, "1"));
+        assertTrue(store.compareAndSet("authority", "1", "2"));
+        store.close();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+        SyncCursorStore reopened = SyncCursorStore.open(mFile);
+        assertEquals("1", reopened.get("authority"));
+        assertTrue(reopened.compareAndSet("authority", "1", "3"));
+        reopened.close();
+
+        SyncCursorStore again = SyncCursorStore.open(mFile);
+        assertEquals("3", again.get("authority"));
+        again.close();
+    }
+
+    public void testCompaction() throws Exception {
+        SyncCursorStore store = SyncCursorStore.open(mFile);
+        String value = null;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(store.compareAndSet("authority", value, Integer.toString(i)));
+            value = Integer.toString(i);
+        }
+        assertTrue(mFile.length() < 1000 * 16);
+        store.close();
+
+        SyncCursorStore reopened = SyncCursorStore.open(mFile);
+        assertEquals("999", reopened.get("authority"));
+        reopened.close();
+    }
+}
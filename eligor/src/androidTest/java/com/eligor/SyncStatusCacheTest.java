@@ -0,0 +1,142 @@
+package com.eligor;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @since 2026/10/17
+ */
+public class SyncStatusCacheTest extends AndroidTestCase {
+    private static final String MOCK_ACCOUNT_NAME = "account";
+    private static final String MOCK_ACCOUNT_TYPE = "type";
+    private static final String MOCK_AUTHORITY = "authority";
+    private Account mMockAccount;
+    private SyncStatusCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockAccount = new Account(MOCK_ACCOUNT_NAME, MOCK_ACCOUNT_TYPE);
+        mCache = new SyncStatusCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.release();
+        super.tearDown();
+    }
+
+    public void testServedFromMemory() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        MockPeriodicSyncManager manager = new MockPeriodicSyncManager(mMockAccount, MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncActive() {
+                count.incrementAndGet();
+                return true;
+            }
+        };
+
+        assertTrue(mCache.get(manager, SyncStatusCache.FLAG_ACTIVE));
+        assertTrue(mCache.get(manager, SyncStatusCache.FLAG_ACTIVE));
+        assertEquals(1, count.get());
+
+        mCache.invalidate(MOCK_AUTHORITY, SyncStatusCache.FLAG_ACTIVE);
+        assertTrue(mCache.get(manager, SyncStatusCache.FLAG_ACTIVE));
+        assertEquals(2, count.get());
+    }
+
+    public void testInvalidatedOnNotification() throws Exception {
+        final AtomicBoolean pending = new AtomicBoolean(false);
+        final AtomicInteger count = new AtomicInteger();
+        MockPeriodicSyncManager manager = new MockPeriodicSyncManager(mMockAccount, MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncPending() {
+                count.incrementAndGet();
+                return pending.get();
+            }
+        };
+
+        assertFalse(mCache.get(manager, SyncStatusCache.FLAG_PENDING));
+        pending.set(true);
+        mCache.onStatusChanged(ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE);
+        assertFalse(mCache.get(manager, SyncStatusCache.FLAG_PENDING));
+        assertEquals(1, count.get());
+
+        mCache.onStatusChanged(ContentResolver.SYNC_OBSERVER_TYPE_PENDING);
+        // asked lazily on the next query, not on the notification.
+        assertEquals(1, count.get());
+        assertTrue(mCache.get(manager, SyncStatusCache.FLAG_PENDING));
+        assertEquals(2, count.get());
+        assertTrue(mCache.get(manager, SyncStatusCache.FLAG_PENDING));
+        assertEquals(2, count.get());
+    }
+
+    public void testReplacedManagerIsAskedAgain() throws Exception {
+        MockPeriodicSyncManager manager = new MockPeriodicSyncManager(mMockAccount, MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncEnabled() {
+                return true;
+            }
+        };
+        MockPeriodicSyncManager another = new MockPeriodicSyncManager(mMockAccount, MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncEnabled() {
+                return false;
+            }
+        };
+
+        assertTrue(mCache.get(manager, SyncStatusCache.FLAG_ENABLED));
+        assertFalse(mCache.get(another, SyncStatusCache.FLAG_ENABLED));
+    }
+
+    public void testSlowQueryDoesNotBlockOthers() throws Exception {
+        final CountDownLatch asking = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final MockPeriodicSyncManager slow = new MockPeriodicSyncManager(mMockAccount, MOCK_AUTHORITY) {
+            @Override
+            public boolean isSyncActive() {
+                count.incrementAndGet();
+                asking.countDown();
+                try {
+                    answer.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+        MockPeriodicSyncManager fast = new MockPeriodicSyncManager(mMockAccount, "fast") {
+            @Override
+            public boolean isSyncActive() {
+                return false;
+            }
+        };
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mCache.get(slow, SyncStatusCache.FLAG_ACTIVE);
+            }
+        });
+        thread.start();
+        assertTrue(asking.await(1, TimeUnit.SECONDS));
+
+        // neither of them waits for the binder call in progress.
+        assertFalse(mCache.get(fast, SyncStatusCache.FLAG_ACTIVE));
+        mCache.onStatusChanged(ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE);
+
+        answer.countDown();
+        thread.join(1000L);
+        // the answer asked before the notification is not cached.
+        assertTrue(mCache.get(slow, SyncStatusCache.FLAG_ACTIVE));
+        assertEquals(2, count.get());
+        assertTrue(mCache.get(slow, SyncStatusCache.FLAG_ACTIVE));
+        assertEquals(2, count.get());
+    }
+}
@@ -0,0 +1,83 @@
+package com.eligor;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link com.eligor.TimingWheel} with {@link java.util.concurrent.ScheduledThreadPoolExecutor}
+ * on the workload of {@link com.eligor.FallbackScheduler}: many schedules re-armed and cancelled at once,
+ * as {@link com.eligor.Eligor#applySyncPeriod(int)} does for all of the registered managers.
+ * The results are written to the log; nothing is asserted on the timing.
+ * @since 2026/10/17
+ */
+public class TimingWheelBenchmark extends AndroidTestCase {
+    public static final String TAG = TimingWheelBenchmark.class.getSimpleName();
+    private static final int SCHEDULES = 500;
+    private static final int ROUNDS = 200;
+    private static final long PERIOD_MILLIS = 60L * 60L * 1000L;
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    public void testReapplyAndCancel() throws Exception {
+        measureWheel(ROUNDS / 10); // warm up
+        measureExecutor(ROUNDS / 10);
+        long wheel = measureWheel(ROUNDS);
+        long executor = measureExecutor(ROUNDS);
+        Log.i(TAG, "re-arm and cancel " + SCHEDULES + " schedules: TimingWheel " + (wheel / ROUNDS) + " ns/round, "
+                + "ScheduledThreadPoolExecutor " + (executor / ROUNDS) + " ns/round");
+    }
+
+    private long measureWheel(int rounds) {
+        TimingWheel wheel = new TimingWheel(FallbackScheduler.DEFAULT_TICK_MILLIS, SystemClock.elapsedRealtime());
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[SCHEDULES];
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            long now = SystemClock.elapsedRealtime();
+            for (int i = 0; i < SCHEDULES; i++) {
+                if (timeouts[i] != null) {
+                    wheel.cancel(timeouts[i]);
+                }
+                timeouts[i] = wheel.add(NO_OP, now + PERIOD_MILLIS + i);
+            }
+        }
+        for (TimingWheel.Timeout timeout : timeouts) {
+            wheel.cancel(timeout);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(0, wheel.size());
+        return elapsed;
+    }
+
+    private long measureExecutor(int rounds) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        ScheduledFuture<?>[] futures = new ScheduledFuture<?>[SCHEDULES];
+        try {
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < SCHEDULES; i++) {
+                    if (futures[i] != null) {
+                        futures[i].cancel(false);
+                    }
+                    futures[i] = executor.schedule(NO_OP, PERIOD_MILLIS + i, TimeUnit.MILLISECONDS);
+                }
+                // the cancelled tasks stay in the queue until they are due, unless purged.
+                executor.purge();
+            }
+            for (ScheduledFuture<?> future : futures) {
+                future.cancel(false);
+            }
+            executor.purge();
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.eligor;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @since 2026/10/17
+ */
+public class TimingWheelTest extends AndroidTestCase {
+    private static final long TICK = 1000L;
+
+    public void testExpiresInOrder() throws Exception {
+        TimingWheel wheel = new TimingWheel(TICK, 0L);
+        Task late = new Task(5000L);
+        Task early = new Task(2000L);
+        wheel.add(late, late.mDeadline);
+        wheel.add(early, early.mDeadline);
+        assertEquals(2, wheel.size());
+
+        assertTrue(wheel.advance(1999L).isEmpty());
+        List<Runnable> expired = wheel.advance(5000L);
+        assertEquals(2, expired.size());
+        assertSame(early, expired.get(0));
+        assertSame(late, expired.get(1));
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextWakeMillis());
+    }
+
+    public void testCancel() throws Exception {
+        TimingWheel wheel = new TimingWheel(TICK, 0L);
+        Task task = new Task(3000L);
+        TimingWheel.Timeout timeout = wheel.add(task, task.mDeadline);
+        assertTrue(timeout.isPending());
+        assertTrue(wheel.cancel(timeout));
+        assertFalse(wheel.cancel(timeout));
+        assertFalse(timeout.isPending());
+        assertTrue(wheel.advance(10000L).isEmpty());
+    }
+
+    public void testNeverEarlyNorLateAcrossLevels() throws Exception {
+        Random random = new Random(0L);
+        TimingWheel wheel = new TimingWheel(TICK, 0L);
+        List<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < 500; i++) {
+            // from seconds to a few weeks, so that every level is used.
+            Task task = new Task((long) (Math.pow(random.nextDouble(), 3) * 3000000000L));
+            tasks.add(task);
+            wheel.add(task, task.mDeadline);
+        }
+
+        long now = 0L;
+        int wakes = 0;
+        while (wheel.size() > 0) {
+            long wake = wheel.nextWakeMillis();
+            assertTrue(wake >= now);
+            now = wake;
+            wakes++;
+            for (Runnable runnable : wheel.advance(now)) {
+                Task task = (Task) runnable;
+                assertTrue(task.mDeadline <= now);
+                assertTrue(now - task.mDeadline < TICK);
+                task.run();
+            }
+        }
+        for (Task task : tasks) {
+            assertTrue(task.mExpired);
+        }
+        // sleeping until the next wake must be far cheaper than ticking every second.
+        assertTrue(wakes < 3000000000L / TICK / 100);
+    }
+
+    public void testOverdueExpiresOnNextAdvance() throws Exception {
+        TimingWheel wheel = new TimingWheel(TICK, 10000L);
+        wheel.advance(20000L);
+        Task task = new Task(0L);
+        wheel.add(task, task.mDeadline);
+        assertEquals(1, wheel.advance(20000L).size());
+    }
+
+    private static final class Task implements Runnable {
+        private final long mDeadline;
+        private boolean mExpired;
+
+        private Task(long deadline) {
+            mDeadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            mExpired = true;
+        }
+    }
+}
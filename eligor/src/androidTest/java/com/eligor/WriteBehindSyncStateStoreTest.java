@@ -0,0 +1,129 @@
+package com.eligor;
+
+import android.test.AndroidTestCase;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @since 2026/10/17
+ */
+public class WriteBehindSyncStateStoreTest extends AndroidTestCase {
+    public void testChangesAreCoalescedUntilFlush() throws Exception {
+        MemoryStore delegate = new MemoryStore();
+        delegate.put("removed", SyncState.EMPTY.withEnabled(true));
+        WriteBehindSyncStateStore store = new WriteBehindSyncStateStore(delegate, 60 * 1000L);
+        store.put("authority", SyncState.EMPTY.withEnabled(false));
+        store.put("authority", SyncState.EMPTY.withEnabled(true));
+        store.put("other", SyncState.EMPTY.withPeriod(3600, 0L));
+        store.remove("removed");
+        assertEquals(Boolean.TRUE, store.get("authority").getEnabled());
+        assertEquals(SyncState.EMPTY, store.get("removed"));
+        assertEquals(3, store.getPendingCount());
+        Set<String> expected = new HashSet<String>();
+        expected.add("authority");
+        expected.add("other");
+        assertEquals(expected, store.getAuthorities());
+        assertEquals(0, delegate.mWrites);
+
+        store.flush();
+        assertEquals(0, store.getPendingCount());
+        assertEquals(3, delegate.mWrites);
+        assertEquals(1, delegate.mFlushes);
+        assertEquals(Boolean.TRUE, delegate.get("authority").getEnabled());
+        assertEquals(3600, delegate.get("other").getPeriod());
+        assertEquals(SyncState.EMPTY, delegate.get("removed"));
+    }
+
+    public void testChangesAreWrittenAfterDelay() throws Exception {
+        MemoryStore delegate = new MemoryStore();
+        WriteBehindSyncStateStore store = new WriteBehindSyncStateStore(delegate, 10L);
+        store.put("authority", SyncState.EMPTY.withEnabled(false));
+        store.put("other", SyncState.EMPTY.withEnabled(true));
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (store.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(0, store.getPendingCount());
+        assertEquals(Boolean.FALSE, delegate.get("authority").getEnabled());
+        assertEquals(Boolean.TRUE, delegate.get("other").getEnabled());
+        assertEquals(1, delegate.mFlushes);
+    }
+
+    public void testFailedChangeDoesNotDropTheOthers() throws Exception {
+        MemoryStore delegate = new MemoryStore();
+        delegate.put("failing", SyncState.EMPTY.withEnabled(true));
+        delegate.mFailing = "failing";
+        WriteBehindSyncStateStore store = new WriteBehindSyncStateStore(delegate, 60 * 1000L);
+        store.put("first", SyncState.EMPTY.withEnabled(true));
+        store.put("failing", SyncState.EMPTY.withEnabled(false));
+        store.put("last", SyncState.EMPTY.withEnabled(false));
+
+        store.flush();
+        assertEquals(Boolean.TRUE, delegate.get("first").getEnabled());
+        assertEquals(Boolean.FALSE, delegate.get("last").getEnabled());
+        // kept, and still served instead of the stale value of the delegate.
+        assertEquals(1, store.getPendingCount());
+        assertEquals(Boolean.FALSE, store.get("failing").getEnabled());
+
+        delegate.mFailing = null;
+        store.flush();
+        assertEquals(0, store.getPendingCount());
+        assertEquals(Boolean.FALSE, delegate.get("failing").getEnabled());
+    }
+
+    public void testCloseFlushesAndWritesThrough() throws Exception {
+        MemoryStore delegate = new MemoryStore();
+        WriteBehindSyncStateStore store = new WriteBehindSyncStateStore(delegate, 60 * 1000L);
+        store.put("authority", SyncState.EMPTY.withEnabled(false));
+
+        store.close();
+        assertEquals(0, store.getPendingCount());
+        assertEquals(Boolean.FALSE, delegate.get("authority").getEnabled());
+
+        store.put("authority", SyncState.EMPTY.withEnabled(true));
+        assertEquals(0, store.getPendingCount());
+        assertEquals(Boolean.TRUE, delegate.get("authority").getEnabled());
+        assertEquals(2, delegate.mFlushes);
+    }
+
+    private static class MemoryStore implements SyncStateStore {
+        private final Map<String, SyncState> mStates = new HashMap<String, SyncState>();
+        private volatile String mFailing;
+        private volatile int mWrites;
+        private volatile int mFlushes;
+
+        @Override
+        public synchronized SyncState get(String authority) {
+            SyncState state = mStates.get(authority);
+            return state != null ? state : SyncState.EMPTY;
+        }
+
+        @Override
+        public synchronized void put(String authority, SyncState state) {
+            if (authority.equals(mFailing)) {
+                throw new IllegalArgumentException("failing: " + authority);
+            }
+            mWrites++;
+            mStates.put(authority, state);
+        }
+
+        @Override
+        public synchronized void remove(String authority) {
+            mWrites++;
+            mStates.remove(authority);
+        }
+
+        @Override
+        public synchronized Set<String> getAuthorities() {
+            return new HashSet<String>(mStates.keySet());
+        }
+
+        @Override
+        public void flush() {
+            mFlushes++;
+        }
+    }
+}
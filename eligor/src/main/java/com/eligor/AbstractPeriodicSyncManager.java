@@ -15,8 +15,16 @@
 package com.eligor;
 
 import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.PeriodicSync;
+import android.os.Bundle;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Skeleton class for the convenience to implement {@link com.eligor.IPeriodicSyncManager}.
@@ -28,10 +36,19 @@ abstract class AbstractPeriodicSyncManager implements IPeriodicSyncManager {
     public static final int FLAG_SYNCABLE = 1;
     public static final int FLAG_NOT_SYNCABLE = 0;
     public static final int FLAG_UNKNOWN = -1;
+    /**
+     * Returned by {@link #getSyncPeriod()} if the period has not been applied yet.
+     */
+    public static final int PERIOD_UNKNOWN = -1;
 
     private final Account mAccount;
     private final String mAuthority;
     private final FallbackRunnable mFallbackRunnable;
+    private final AtomicInteger mAppliedSyncPeriodCount = new AtomicInteger();
+    private final AtomicInteger mSkippedSyncPeriodCount = new AtomicInteger();
+    private volatile int mSyncPeriod = PERIOD_UNKNOWN;
+    private volatile long mSyncExtrasFingerprint;
+    private volatile boolean mSyncPeriodDiffingEnabled;
 
     /**
      * Create a new instance of the {@link com.eligor.IPeriodicSyncManager} with associated {@link android.accounts.Account} and authority.
@@ -68,4 +85,136 @@ abstract class AbstractPeriodicSyncManager implements IPeriodicSyncManager {
     public FallbackRunnable getFallbackRunnable() {
         return mFallbackRunnable;
     }
+
+    /**
+     * Returns the period of the automatic sync that is currently applied.
+     * @return the period in seconds, or {@link #PERIOD_UNKNOWN} if not applied yet.
+     */
+    public int getSyncPeriod() {
+        return mSyncPeriod;
+    }
+
+    /**
+     * Returns the period of the automatic sync that the manager has applied, if the manager remembers it.
+     * @param manager the manager to check.
+     * @return the period in seconds, or {@link #PERIOD_UNKNOWN} if not applied yet, or the manager is not derived from this class.
+     */
+    /* package */ static int syncPeriodOf(@Nonnull IPeriodicSyncManager manager) {
+        return manager instanceof AbstractPeriodicSyncManager ? ((AbstractPeriodicSyncManager) manager).getSyncPeriod() : PERIOD_UNKNOWN;
+    }
+
+    /**
+     * Enables or disables the diffing mode of {@link #applySyncPeriod(int)} and {@link #applySyncPeriod(int, android.os.Bundle)}.
+     * In the diffing mode, the period and the extra arguments are compared with the ones applied last time,
+     * and the request is skipped if nothing has changed.
+     * @param enabled true to enable diffing.
+     */
+    public void setSyncPeriodDiffingEnabled(boolean enabled) {
+        mSyncPeriodDiffingEnabled = enabled;
+    }
+
+    /**
+     * @return true if the diffing mode is enabled, false otherwise.
+     */
+    public boolean isSyncPeriodDiffingEnabled() {
+        return mSyncPeriodDiffingEnabled;
+    }
+
+    /**
+     * @return the number of the sync period requests that have actually been applied to the system.
+     */
+    public int getAppliedSyncPeriodCount() {
+        return mAppliedSyncPeriodCount.get();
+    }
+
+    /**
+     * @return the number of the sync period requests that have been skipped as nothing has changed.
+     */
+    public int getSkippedSyncPeriodCount() {
+        return mSkippedSyncPeriodCount.get();
+    }
+
+    /**
+     * Decides whether the sync period request should be applied to the system, and counts the decision.
+     * @param period the period in seconds.
+     * @param args extra arguments for the request.
+     * @return true if the request should be applied, false if it should be skipped.
+     */
+    protected boolean shouldApplySyncPeriod(int period, @Nullable Bundle args) {
+        if (mSyncPeriodDiffingEnabled && isSyncPeriodApplied(period, args)) {
+            mSkippedSyncPeriodCount.incrementAndGet();
+            return false;
+        }
+        mAppliedSyncPeriodCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Checks if the sync period with the extra arguments has already been applied.
+     * The state remembered by {@link #setSyncPeriod(int, android.os.Bundle)} is used if any,
+     * otherwise the periodic syncs registered in the system are looked up.
+     * @param period the period in seconds.
+     * @param args extra arguments for the request.
+     * @return true if already applied, false otherwise.
+     */
+    protected boolean isSyncPeriodApplied(int period, @Nullable Bundle args) {
+        if (mSyncPeriod != PERIOD_UNKNOWN) {
+            return mSyncPeriod == period && mSyncExtrasFingerprint == Bundles.fingerprint(args);
+        }
+        List<PeriodicSync> syncs = ContentResolver.getPeriodicSyncs(getAccount(), getAuthority());
+        if (syncs == null) {
+            return false;
+        }
+        for (PeriodicSync sync : syncs) {
+            if (sync.period == period && Bundles.equals(sync.extras, args)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remember the period that has been applied, so {@link #getSyncPeriod()} and the diffing mode can answer without asking the system.
+     * @param period the period in seconds.
+     * @param args extra arguments that have been applied with the period.
+     */
+    protected void setSyncPeriod(int period, @Nullable Bundle args) {
+        mSyncExtrasFingerprint = Bundles.fingerprint(args);
+        mSyncPeriod = period;
+    }
+
+    /**
+     * Start loading the persisted state of this manager, if any, on the executor ahead of its first use.
+     * Called by {@link com.eligor.Eligor} on registration. Does nothing by default.
+     * @param executor the background executor.
+     */
+    /* package */ void prefetchState(@Nonnull Executor executor) {
+        // nothing persisted
+    }
+
+    /**
+     * Apply the persisted period again with its persisted extra arguments, regardless of the diffing mode.
+     * Called by {@link com.eligor.Eligor#restore()}. Does nothing by default.
+     * @return the state restored, or null if nothing is restored.
+     */
+    /* package */ @Nullable SyncState restoreSyncPeriod() {
+        return null;
+    }
+
+    /**
+     * @return the store this manager persists its state to, or null if it persists nothing.
+     */
+    /* package */ @Nullable SyncStateStore getStateStore() {
+        return null;
+    }
+
+    /**
+     * Apply a batch of settings changes recorded by {@link com.eligor.SyncSettingsEditor}.
+     * Subclasses may override this to apply the changes with fewer operations.
+     * @param change desired state of the authority.
+     * @param currentFlags current status of the authority, see {@link com.eligor.SyncStatusCache}.
+     */
+    /* package */ void applyChanges(@Nonnull SyncSettingsEditor.Change change, int currentFlags) {
+        SyncSettingsEditor.applyIndividually(this, change, currentFlags);
+    }
 }
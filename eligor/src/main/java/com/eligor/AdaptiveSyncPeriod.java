@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Adapts the sync period of each authority to the results of its fallback runs, within the bounds given to the authority.
+ * The period is doubled after {@link #EMPTY_RUNS_TO_LENGTHEN} runs in a row have found nothing to change,
+ * and halved after {@link #BUSY_RUNS_TO_SHORTEN} runs in a row have found changes.
+ * The failed runs don't count, since the retry backoff takes care of them.
+ * A period applied explicitly resets the adaptation of the authority.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class AdaptiveSyncPeriod {
+    public static final int EMPTY_RUNS_TO_LENGTHEN = 3;
+    public static final int BUSY_RUNS_TO_SHORTEN = 2;
+    /**
+     * The bounds that disable the adaptation.
+     */
+    public static final int DISABLED = 0;
+    private final Applier mApplier;
+    private final Map<String, State> mStates;
+    private final Map<String, int[]> mBounds;
+    private int[] mDefaultBounds;
+
+    /* package */ AdaptiveSyncPeriod(@Nonnull Applier applier) {
+        mApplier = applier;
+        mStates = new HashMap<String, State>();
+        mBounds = new HashMap<String, int[]>();
+    }
+
+    /**
+     * @param minPeriod the shortest period in seconds, or {@link #DISABLED}.
+     * @param maxPeriod the longest period in seconds, or {@link #DISABLED}.
+     */
+    public synchronized void setDefaultBounds(int minPeriod, int maxPeriod) {
+        mDefaultBounds = toBounds(minPeriod, maxPeriod);
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @param minPeriod the shortest period in seconds, or {@link #DISABLED}.
+     * @param maxPeriod the longest period in seconds, or {@link #DISABLED}.
+     */
+    public synchronized void setBounds(@Nonnull String authority, int minPeriod, int maxPeriod) {
+        mBounds.put(authority, toBounds(minPeriod, maxPeriod));
+    }
+
+    /**
+     * Start over the adaptation of the authority from the period applied explicitly.
+     * @param manager the manager that has applied the period.
+     * @param period the period in seconds.
+     * @param args extra arguments of the periodic sync, that the adapted period is applied with.
+     */
+    public synchronized void onSyncPeriodApplied(@Nonnull IPeriodicSyncManager manager, int period, @Nullable Bundle args) {
+        if (period <= 0) {
+            mStates.remove(manager.getAuthority());
+            return;
+        }
+        mStates.put(manager.getAuthority(), new State(manager, period, args != null ? new Bundle(args) : null));
+    }
+
+    /**
+     * Take the result of a fallback run into the adaptation, and apply the new period if it has changed.
+     * @param manager the manager that has run.
+     * @param result the result of the run.
+     */
+    public void onResult(@Nonnull IPeriodicSyncManager manager, @Nonnull FallbackResult result) {
+        State state;
+        int period;
+        synchronized (this) {
+            String authority = manager.getAuthority();
+            state = mStates.get(authority);
+            int[] bounds = mBounds.containsKey(authority) ? mBounds.get(authority) : mDefaultBounds;
+            if (state == null || state.mManager != manager || bounds == null) {
+                return;
+            }
+            period = state.next(result, bounds[0], bounds[1]);
+            if (period == state.mPeriod) {
+                return;
+            }
+            state.mPeriod = period;
+        }
+        mApplier.apply(manager, period, state.mArgs);
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the current period of the authority in seconds, or {@link AbstractPeriodicSyncManager#PERIOD_UNKNOWN} if not adapted.
+     */
+    public synchronized int getPeriod(@Nonnull String authority) {
+        State state = mStates.get(authority);
+        return state == null ? AbstractPeriodicSyncManager.PERIOD_UNKNOWN : state.mPeriod;
+    }
+
+    public synchronized void remove(@Nonnull String authority) {
+        mStates.remove(authority);
+    }
+
+    private static int[] toBounds(int minPeriod, int maxPeriod) {
+        if (minPeriod == DISABLED && maxPeriod == DISABLED) {
+            return null;
+        }
+        if (minPeriod <= 0 || maxPeriod < minPeriod) {
+            throw new IllegalArgumentException("invalid period bounds: min=" + minPeriod + ", max=" + maxPeriod);
+        }
+        return new int[] { minPeriod, maxPeriod };
+    }
+
+    /**
+     * Applies the adapted period to the manager.
+     */
+    /* package */ interface Applier {
+        public void apply(@Nonnull IPeriodicSyncManager manager, int period, @Nullable Bundle args);
+    }
+
+    private static final class State {
+        private final IPeriodicSyncManager mManager;
+        private final Bundle mArgs;
+        private int mPeriod;
+        private int mEmptyRuns;
+        private int mBusyRuns;
+
+        private State(IPeriodicSyncManager manager, int period, Bundle args) {
+            mManager = manager;
+            mPeriod = period;
+            mArgs = args;
+        }
+
+        private int next(FallbackResult result, int minPeriod, int maxPeriod) {
+            if (result.getErrorClass() != FallbackResult.ErrorClass.NONE || result.getItemsChanged() == FallbackResult.UNKNOWN) {
+                return mPeriod;
+            }
+            if (result.getItemsChanged() == 0) {
+                mBusyRuns = 0;
+                if (++mEmptyRuns < EMPTY_RUNS_TO_LENGTHEN) {
+                    return mPeriod;
+                }
+                mEmptyRuns = 0;
+                return clamp((int) Math.min((long) mPeriod * 2, Integer.MAX_VALUE), minPeriod, maxPeriod);
+            }
+            mEmptyRuns = 0;
+            if (++mBusyRuns < BUSY_RUNS_TO_SHORTEN) {
+                return mPeriod;
+            }
+            mBusyRuns = 0;
+            return clamp(mPeriod / 2, minPeriod, maxPeriod);
+        }
+
+        private static int clamp(int period, int minPeriod, int maxPeriod) {
+            return Math.max(minPeriod, Math.min(maxPeriod, period));
+        }
+    }
+}
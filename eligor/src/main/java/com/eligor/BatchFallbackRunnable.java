@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link com.eligor.FallbackRunnable} that can perform several queued fallback syncs of the authority at once.
+ * When more than one request is waiting in the queue of the authority, they are taken together and delivered to
+ * {@link #onPerformSyncBatch(java.util.List)}, so that the implementation can serve them with a single round trip.
+ * A request that is alone in the queue is delivered to {@link #onPerformSync(android.os.Bundle)} as usual.
+ * @see com.eligor.FallbackExecutorConfig.Builder#setMaxBatchSize(int)
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+public interface BatchFallbackRunnable extends FallbackRunnable {
+    /**
+     * Perform the queued syncs by yourself, since the master sync is disabled.
+     * Throw {@link com.eligor.RetryableSyncException} to have the whole batch retried later.
+     * @param extrasList extra arguments of each request in the order of the requests. Each of them may be null.
+     */
+    public void onPerformSyncBatch(@Nonnull List<Bundle> extrasList);
+}
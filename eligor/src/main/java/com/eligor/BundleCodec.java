@@ -0,0 +1,587 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Compact binary encoding of the extra arguments of the sync, to persist them across processes.
+ * Unlike {@link android.os.Parcel}, the encoding is stable across platform versions, so it is safe to store on disk.
+ * The keys are written in sorted order, so equal bundles are always encoded to the same bytes.
+ * Supported values are the ones that the sync framework accepts as extras, that is, the primitives, their arrays,
+ * strings, string arrays, lists of strings or integers, and nested bundles of them.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class BundleCodec {
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_BOOLEAN = 1;
+    private static final int TYPE_BYTE = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_CHAR = 4;
+    private static final int TYPE_INT = 5;
+    private static final int TYPE_LONG = 6;
+    private static final int TYPE_FLOAT = 7;
+    private static final int TYPE_DOUBLE = 8;
+    private static final int TYPE_STRING = 9;
+    private static final int TYPE_BUNDLE = 10;
+    private static final int TYPE_BOOLEAN_ARRAY = 11;
+    private static final int TYPE_BYTE_ARRAY = 12;
+    private static final int TYPE_SHORT_ARRAY = 13;
+    private static final int TYPE_CHAR_ARRAY = 14;
+    private static final int TYPE_INT_ARRAY = 15;
+    private static final int TYPE_LONG_ARRAY = 16;
+    private static final int TYPE_FLOAT_ARRAY = 17;
+    private static final int TYPE_DOUBLE_ARRAY = 18;
+    private static final int TYPE_STRING_ARRAY = 19;
+    private static final int TYPE_STRING_LIST = 20;
+    private static final int TYPE_INTEGER_LIST = 21;
+    private static final int NULL_BUNDLE = -1;
+    private static final int MAX_DEPTH = 16;
+
+    private BundleCodec() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Checks if the bundle can be encoded.
+     * @param bundle a bundle, may be null.
+     * @return true if all of the values are supported.
+     */
+    public static boolean isEncodable(@Nullable Bundle bundle) {
+        return isEncodable(bundle, 0);
+    }
+
+    /**
+     * @param out the output.
+     * @param bundle a bundle, may be null.
+     * @throws java.lang.IllegalArgumentException if the bundle holds a value that is not supported.
+     * @throws java.io.IOException if failed to write.
+     */
+    public static void write(@Nonnull DataOutput out, @Nullable Bundle bundle) throws IOException {
+        write(out, bundle, 0);
+    }
+
+    /**
+     * @param in the input.
+     * @return the bundle, may be null if null has been written.
+     * @throws java.io.IOException if failed to read, or the input is malformed.
+     *         The lengths are checked against the bytes left in the input if the input is an {@link java.io.InputStream}.
+     */
+    public static @Nullable Bundle read(@Nonnull DataInput in) throws IOException {
+        return read(in, 0);
+    }
+
+    /**
+     * @param bundle a bundle, may be null.
+     * @return the encoded bytes, or null if the bundle holds a value that is not supported.
+     */
+    public static @Nullable byte[] encode(@Nullable Bundle bundle) {
+        if (!isEncodable(bundle)) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            write(new DataOutputStream(bytes), bundle);
+        } catch (IOException e) {
+            throw new AssertionError(e); // never thrown by the memory
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes the bytes encoded by {@link #encode(android.os.Bundle)}.
+     * @return the bundle, may be null if null has been encoded.
+     * @throws java.io.IOException if the bytes are malformed.
+     */
+    public static @Nullable Bundle decode(@Nonnull byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static boolean isEncodable(Bundle bundle, int depth) {
+        if (bundle == null) {
+            return true;
+        }
+        if (depth >= MAX_DEPTH) {
+            return false;
+        }
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Bundle) {
+                if (!isEncodable((Bundle) value, depth + 1)) {
+                    return false;
+                }
+            } else if (typeOf(value) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void write(DataOutput out, Bundle bundle, int depth) throws IOException {
+        if (bundle == null) {
+            writeLength(out, NULL_BUNDLE);
+            return;
+        }
+        if (depth >= MAX_DEPTH) {
+            throw new IllegalArgumentException("bundle is nested too deep.");
+        }
+        Set<String> keys = new TreeSet<String>(bundle.keySet());
+        writeLength(out, keys.size());
+        for (String key : keys) {
+            writeString(out, key);
+            writeValue(out, bundle.get(key), depth);
+        }
+    }
+
+    private static Bundle read(DataInput in, int depth) throws IOException {
+        int size = readLength(in);
+        if (size == NULL_BUNDLE) {
+            return null;
+        }
+        if (depth >= MAX_DEPTH) {
+            throw new IOException("bundle is nested too deep.");
+        }
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < size; i++) {
+            readValue(in, bundle, readString(in), depth);
+        }
+        return bundle;
+    }
+
+    private static int typeOf(Object value) {
+        if (value == null) {
+            return TYPE_NULL;
+        } else if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Byte) {
+            return TYPE_BYTE;
+        } else if (value instanceof Short) {
+            return TYPE_SHORT;
+        } else if (value instanceof Character) {
+            return TYPE_CHAR;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof Float) {
+            return TYPE_FLOAT;
+        } else if (value instanceof Double) {
+            return TYPE_DOUBLE;
+        } else if (value instanceof String) {
+            return TYPE_STRING;
+        } else if (value instanceof Bundle) {
+            return TYPE_BUNDLE;
+        } else if (value instanceof boolean[]) {
+            return TYPE_BOOLEAN_ARRAY;
+        } else if (value instanceof byte[]) {
+            return TYPE_BYTE_ARRAY;
+        } else if (value instanceof short[]) {
+            return TYPE_SHORT_ARRAY;
+        } else if (value instanceof char[]) {
+            return TYPE_CHAR_ARRAY;
+        } else if (value instanceof int[]) {
+            return TYPE_INT_ARRAY;
+        } else if (value instanceof long[]) {
+            return TYPE_LONG_ARRAY;
+        } else if (value instanceof float[]) {
+            return TYPE_FLOAT_ARRAY;
+        } else if (value instanceof double[]) {
+            return TYPE_DOUBLE_ARRAY;
+        } else if (value instanceof String[]) {
+            return TYPE_STRING_ARRAY;
+        } else if (value instanceof ArrayList) {
+            return typeOfList((ArrayList<?>) value);
+        }
+        return -1;
+    }
+
+    private static int typeOfList(ArrayList<?> list) {
+        boolean strings = true;
+        boolean integers = true;
+        for (Object element : list) {
+            strings &= element == null || element instanceof String;
+            integers &= element == null || element instanceof Integer;
+        }
+        if (strings) {
+            return TYPE_STRING_LIST; // an empty list goes here too; the type of an empty list is not observable anyway
+        }
+        return integers ? TYPE_INTEGER_LIST : -1;
+    }
+
+    private static void writeValue(DataOutput out, Object value, int depth) throws IOException {
+        int type = typeOf(value);
+        if (type < 0) {
+            throw new IllegalArgumentException("unsupported value: " + value.getClass().getName());
+        }
+        out.writeByte(type);
+        switch (type) {
+            case TYPE_NULL:
+                break;
+            case TYPE_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case TYPE_BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case TYPE_SHORT:
+                out.writeShort((Short) value);
+                break;
+            case TYPE_CHAR:
+                out.writeChar((Character) value);
+                break;
+            case TYPE_INT:
+                out.writeInt((Integer) value);
+                break;
+            case TYPE_LONG:
+                out.writeLong((Long) value);
+                break;
+            case TYPE_FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case TYPE_DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case TYPE_STRING:
+                writeString(out, (String) value);
+                break;
+            case TYPE_BUNDLE:
+                write(out, (Bundle) value, depth + 1);
+                break;
+            case TYPE_BOOLEAN_ARRAY: {
+                boolean[] array = (boolean[]) value;
+                writeLength(out, array.length);
+                for (boolean element : array) {
+                    out.writeBoolean(element);
+                }
+                break;
+            }
+            case TYPE_BYTE_ARRAY: {
+                byte[] array = (byte[]) value;
+                writeLength(out, array.length);
+                out.write(array);
+                break;
+            }
+            case TYPE_SHORT_ARRAY: {
+                short[] array = (short[]) value;
+                writeLength(out, array.length);
+                for (short element : array) {
+                    out.writeShort(element);
+                }
+                break;
+            }
+            case TYPE_CHAR_ARRAY: {
+                char[] array = (char[]) value;
+                writeLength(out, array.length);
+                for (char element : array) {
+                    out.writeChar(element);
+                }
+                break;
+            }
+            case TYPE_INT_ARRAY: {
+                int[] array = (int[]) value;
+                writeLength(out, array.length);
+                for (int element : array) {
+                    out.writeInt(element);
+                }
+                break;
+            }
+            case TYPE_LONG_ARRAY: {
+                long[] array = (long[]) value;
+                writeLength(out, array.length);
+                for (long element : array) {
+                    out.writeLong(element);
+                }
+                break;
+            }
+            case TYPE_FLOAT_ARRAY: {
+                float[] array = (float[]) value;
+                writeLength(out, array.length);
+                for (float element : array) {
+                    out.writeFloat(element);
+                }
+                break;
+            }
+            case TYPE_DOUBLE_ARRAY: {
+                double[] array = (double[]) value;
+                writeLength(out, array.length);
+                for (double element : array) {
+                    out.writeDouble(element);
+                }
+                break;
+            }
+            case TYPE_STRING_ARRAY: {
+                String[] array = (String[]) value;
+                writeLength(out, array.length);
+                for (String element : array) {
+                    writeNullableString(out, element);
+                }
+                break;
+            }
+            case TYPE_STRING_LIST: {
+                ArrayList<?> list = (ArrayList<?>) value;
+                writeLength(out, list.size());
+                for (Object element : list) {
+                    writeNullableString(out, (String) element);
+                }
+                break;
+            }
+            case TYPE_INTEGER_LIST: {
+                ArrayList<?> list = (ArrayList<?>) value;
+                writeLength(out, list.size());
+                for (Object element : list) {
+                    out.writeBoolean(element != null);
+                    if (element != null) {
+                        out.writeInt((Integer) element);
+                    }
+                }
+                break;
+            }
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static void readValue(DataInput in, Bundle bundle, String key, int depth) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                bundle.putString(key, null);
+                break;
+            case TYPE_BOOLEAN:
+                bundle.putBoolean(key, in.readBoolean());
+                break;
+            case TYPE_BYTE:
+                bundle.putByte(key, in.readByte());
+                break;
+            case TYPE_SHORT:
+                bundle.putShort(key, in.readShort());
+                break;
+            case TYPE_CHAR:
+                bundle.putChar(key, in.readChar());
+                break;
+            case TYPE_INT:
+                bundle.putInt(key, in.readInt());
+                break;
+            case TYPE_LONG:
+                bundle.putLong(key, in.readLong());
+                break;
+            case TYPE_FLOAT:
+                bundle.putFloat(key, in.readFloat());
+                break;
+            case TYPE_DOUBLE:
+                bundle.putDouble(key, in.readDouble());
+                break;
+            case TYPE_STRING:
+                bundle.putString(key, readString(in));
+                break;
+            case TYPE_BUNDLE:
+                bundle.putBundle(key, read(in, depth + 1));
+                break;
+            case TYPE_BOOLEAN_ARRAY: {
+                boolean[] array = new boolean[readCount(in, 1)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readBoolean();
+                }
+                bundle.putBooleanArray(key, array);
+                break;
+            }
+            case TYPE_BYTE_ARRAY: {
+                byte[] array = new byte[readCount(in, 1)];
+                in.readFully(array);
+                bundle.putByteArray(key, array);
+                break;
+            }
+            case TYPE_SHORT_ARRAY: {
+                short[] array = new short[readCount(in, 2)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readShort();
+                }
+                bundle.putShortArray(key, array);
+                break;
+            }
+            case TYPE_CHAR_ARRAY: {
+                char[] array = new char[readCount(in, 2)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readChar();
+                }
+                bundle.putCharArray(key, array);
+                break;
+            }
+            case TYPE_INT_ARRAY: {
+                int[] array = new int[readCount(in, 4)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readInt();
+                }
+                bundle.putIntArray(key, array);
+                break;
+            }
+            case TYPE_LONG_ARRAY: {
+                long[] array = new long[readCount(in, 8)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readLong();
+                }
+                bundle.putLongArray(key, array);
+                break;
+            }
+            case TYPE_FLOAT_ARRAY: {
+                float[] array = new float[readCount(in, 4)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readFloat();
+                }
+                bundle.putFloatArray(key, array);
+                break;
+            }
+            case TYPE_DOUBLE_ARRAY: {
+                double[] array = new double[readCount(in, 8)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readDouble();
+                }
+                bundle.putDoubleArray(key, array);
+                break;
+            }
+            case TYPE_STRING_ARRAY: {
+                String[] array = new String[readCount(in, 1)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readNullableString(in);
+                }
+                bundle.putStringArray(key, array);
+                break;
+            }
+            case TYPE_STRING_LIST: {
+                int size = readCount(in, 1);
+                ArrayList<String> list = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readNullableString(in));
+                }
+                bundle.putStringArrayList(key, list);
+                break;
+            }
+            case TYPE_INTEGER_LIST: {
+                int size = readCount(in, 1);
+                ArrayList<Integer> list = new ArrayList<Integer>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(in.readBoolean() ? in.readInt() : null);
+                }
+                bundle.putIntegerArrayList(key, list);
+                break;
+            }
+            default:
+                throw new IOException("unknown type: " + type);
+        }
+    }
+
+    /**
+     * Writes the length as a variable length integer, 1 byte for up to 127. -1 is for null.
+     */
+    private static void writeLength(DataOutput out, int length) throws IOException {
+        int value = length + 1;
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                int length = value - 1;
+                if (length < NULL_BUNDLE) {
+                    throw new IOException("malformed length: " + length);
+                }
+                return length;
+            }
+        }
+        throw new IOException("malformed length.");
+    }
+
+    /**
+     * Reads the length of an array or a list, that is never null.
+     * @param elementSize the minimum number of the bytes an element takes.
+     */
+    private static int readCount(DataInput in, int elementSize) throws IOException {
+        int count = readLength(in);
+        if (count < 0) {
+            throw new IOException("unexpected null length.");
+        }
+        checkRemaining(in, count, elementSize);
+        return count;
+    }
+
+    /**
+     * Checks the length against the bytes left in the input, if known, so a corrupt length is reported as malformed
+     * instead of an allocation that can't succeed.
+     */
+    private static void checkRemaining(DataInput in, int count, int elementSize) throws IOException {
+        if (in instanceof InputStream && (long) count * elementSize > ((InputStream) in).available()) {
+            throw new IOException("length exceeds the input: " + count);
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeLength(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0) {
+            throw new IOException("unexpected null string.");
+        }
+        checkRemaining(in, length, 1);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeNullableString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeLength(out, -1);
+        } else {
+            writeString(out, value);
+        }
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        checkRemaining(in, length, 1);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * Utilities to compare the extra arguments of the sync by their contents.
+ * A null {@link android.os.Bundle} is treated as an empty one, since the framework does so.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class Bundles {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Bundles() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Checks if the two bundles hold the same keys and the same values.
+     * Arrays are compared by their elements, and nested bundles are compared recursively.
+     * @param a a bundle, may be null.
+     * @param b another bundle, may be null.
+     * @return true if equal, false otherwise.
+     */
+    public static boolean equals(@Nullable Bundle a, @Nullable Bundle b) {
+        if (a == b) {
+            return true;
+        }
+        if (isEmpty(a) || isEmpty(b)) {
+            return isEmpty(a) && isEmpty(b);
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (String key : a.keySet()) {
+            if (!b.containsKey(key) || !valueEquals(a.get(key), b.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes a fingerprint of the bundle contents. Equal bundles have the same fingerprint within a process.
+     * The fingerprint is stable across processes, so it can be persisted and compared later,
+     * only if {@link #isFingerprintStable(android.os.Bundle)}; the other values, e.g. a {@link android.os.Parcelable}
+     * without its own {@link Object#toString()}, may be hashed by their identity.
+     * @param bundle a bundle, may be null.
+     * @return the fingerprint.
+     */
+    public static long fingerprint(@Nullable Bundle bundle) {
+        long hash = FNV_OFFSET_BASIS;
+        if (isEmpty(bundle)) {
+            return hash;
+        }
+        Set<String> keys = new TreeSet<String>(bundle.keySet());
+        for (String key : keys) {
+            hash = fnv(hash, key);
+            Object value = bundle.get(key);
+            if (value instanceof Bundle) {
+                hash = fnv(hash, Long.toString(fingerprint((Bundle) value)));
+            } else {
+                hash = fnv(hash, value == null ? "null" : value.getClass().getName());
+                hash = fnv(hash, Arrays.deepToString(new Object[] { value }));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Checks if the fingerprint of the bundle is stable across processes, i.e. the bundle only holds
+     * the primitives, strings, their arrays and lists, and the nested bundles of them.
+     * @param bundle a bundle, may be null.
+     * @return true if the fingerprint can be persisted.
+     */
+    public static boolean isFingerprintStable(@Nullable Bundle bundle) {
+        if (isEmpty(bundle)) {
+            return true;
+        }
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Bundle) {
+                if (!isFingerprintStable((Bundle) value)) {
+                    return false;
+                }
+            } else if (!isStableValue(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param bundle a bundle, may be null.
+     * @return true if null or empty.
+     */
+    public static boolean isEmpty(@Nullable Bundle bundle) {
+        return bundle == null || bundle.size() == 0;
+    }
+
+    private static boolean isStableValue(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+                || value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Double) {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        if (value instanceof String[] || type.isArray() && type.getComponentType().isPrimitive()) {
+            return true;
+        }
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                // an array in a list is printed by its identity.
+                if (element != null && element.getClass().isArray() || !isStableValue(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a instanceof Bundle && b instanceof Bundle) {
+            return equals((Bundle) a, (Bundle) b);
+        }
+        return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return (hash ^ 0xff) * FNV_PRIME; // separator, so that ("ab", "c") and ("a", "bc") differ
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * {@link com.eligor.FallbackRunnable} that syncs incrementally from the cursor of the authority.
+ * The cursor is the same one a system sync adapter obtains by {@link com.eligor.Eligor#getSyncCursor(String)},
+ * so the fallback runs and the system syncs share their progress.
+ * If no cursor store is configured by {@link com.eligor.FallbackExecutorConfig.Builder#setCursorFile(java.io.File)},
+ * the runs are delivered to {@link #onPerformSync(android.os.Bundle)} as usual.
+ * The batched runs of a {@link com.eligor.BatchFallbackRunnable} take precedence over this.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+public interface CursorFallbackRunnable extends FallbackRunnable {
+    /**
+     * Perform the sync by yourself, since the master sync is disabled, transferring only the changes after the cursor.
+     * Throw {@link com.eligor.RetryableSyncException} to have the run retried later.
+     * @param extras extra arguments of the sync request, may be null.
+     * @param cursor the cursor of the authority.
+     */
+    public void onPerformSync(@Nullable Bundle extras, @Nonnull SyncCursor cursor);
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Drops the sync requests that duplicate the one already waiting to run.
+ * For the system sync, a request is dropped if the sync of the authority is pending and the last request had equivalent extras.
+ * A request while the sync is active but not pending still goes through, so that the changes made during the sync are not lost,
+ * and it becomes the pending one that absorbs the following duplicates.
+ * For the fallback sync, a request is dropped if a run with equivalent extras is queued and not started yet.
+ * The filter does nothing until enabled.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class DuplicateRequestFilter {
+    private final SyncStatusCache mStatusCache;
+    private final ConcurrentHashMap<String, Long> mLastRequests;
+    private final Map<String, Set<Long>> mQueuedFallbacks;
+    private final AtomicInteger mSuppressedCount;
+    private volatile boolean mEnabled;
+
+    /* package */ DuplicateRequestFilter(@Nonnull SyncStatusCache statusCache) {
+        mStatusCache = statusCache;
+        mLastRequests = new ConcurrentHashMap<String, Long>();
+        mQueuedFallbacks = new HashMap<String, Set<Long>>();
+        mSuppressedCount = new AtomicInteger();
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            mLastRequests.clear();
+            synchronized (mQueuedFallbacks) {
+                mQueuedFallbacks.clear();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public int getSuppressedCount() {
+        return mSuppressedCount.get();
+    }
+
+    /**
+     * Checks the request to the system sync, and remembers it if accepted.
+     * @param manager the manager to request the sync.
+     * @param args extra arguments of the request, may be null.
+     * @return true if the request should be dispatched, false if it is a duplicate.
+     */
+    public boolean acceptSyncRequest(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle args) {
+        if (!mEnabled) {
+            return true;
+        }
+        String authority = manager.getAuthority();
+        long fingerprint = Bundles.fingerprint(args);
+        Long last = mLastRequests.get(authority);
+        if (last != null && last == fingerprint && mStatusCache.get(manager, SyncStatusCache.FLAG_PENDING)) {
+            mSuppressedCount.incrementAndGet();
+            return false;
+        }
+        mLastRequests.put(authority, fingerprint);
+        // the pending state will change soon, do not trust the cache until notified.
+        mStatusCache.invalidate(authority, SyncStatusCache.FLAG_PENDING | SyncStatusCache.FLAG_ACTIVE);
+        return true;
+    }
+
+    /**
+     * Checks the request to the fallback sync, and counts it as queued if accepted.
+     * @param authority the periodic sync manager is associated with.
+     * @param args extra arguments of the request, may be null.
+     * @return true if the request should be dispatched, false if it is a duplicate.
+     */
+    public boolean acceptFallbackRequest(String authority, @Nullable Bundle args) {
+        if (!mEnabled) {
+            return true;
+        }
+        Long fingerprint = Bundles.fingerprint(args);
+        synchronized (mQueuedFallbacks) {
+            Set<Long> queued = mQueuedFallbacks.get(authority);
+            if (queued == null) {
+                queued = new HashSet<Long>();
+                mQueuedFallbacks.put(authority, queued);
+            }
+            if (!queued.add(fingerprint)) {
+                mSuppressedCount.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Notifies the fallback run has left the queue, either started, discarded or rejected, so the equivalent requests are accepted again.
+     * @param authority the periodic sync manager is associated with.
+     * @param args extra arguments of the run, may be null.
+     */
+    public void onFallbackDequeued(String authority, @Nullable Bundle args) {
+        synchronized (mQueuedFallbacks) {
+            Set<Long> queued = mQueuedFallbacks.get(authority);
+            if (queued == null) {
+                return;
+            }
+            queued.remove(Bundles.fingerprint(args));
+            if (queued.isEmpty()) {
+                mQueuedFallbacks.remove(authority);
+            }
+        }
+    }
+
+    /**
+     * Forget everything about the authority.
+     * @param authority the periodic sync manager is associated with.
+     */
+    public void remove(String authority) {
+        mLastRequests.remove(authority);
+        synchronized (mQueuedFallbacks) {
+            mQueuedFallbacks.remove(authority);
+        }
+    }
+}
@@ -14,13 +14,25 @@
  */
 package com.eligor;
 
-import android.content.ContentResolver;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
@@ -32,17 +44,147 @@ import javax.annotation.Nullable;
 @SuppressWarnings("unused") // public API
 public final class Eligor {
     public static final String TAG = Eligor.class.getSimpleName();
+    public static final long DEFAULT_DESTROY_TIMEOUT_MILLIS = 1000L;
     private static volatile Eligor sInstance;
     private final int mDefaultPeriod;
-    private final Map<String, IPeriodicSyncManager> mSyncManagers;
+    private final PeriodicSyncManagerRegistry mSyncManagers;
+    private final MasterSyncState mMasterSyncState;
+    private final SyncStatusCache mStatusCache;
+    private final FallbackRunLog mFallbackRunLog;
+    private final FallbackBackoff mFallbackBackoff;
+    private final ExecutorService mEditorExecutor;
+    private final SyncTimer mTimer;
+    private final SyncRequestCoalescer mRequestCoalescer;
+    private final FallbackScheduler mFallbackScheduler;
+    private final DuplicateRequestFilter mDuplicateRequestFilter;
+    private final FallbackSyncDispatcher.Listener mFallbackListener;
+    private final FallbackRunnableExecutor mFallbackExecutor;
+    private final FallbackLanes mFallbackLanes;
+    private final FallbackJournal mFallbackJournal;
+    private final SyncCursorStore mCursorStore;
+    private final AdaptiveSyncPeriod mAdaptiveSyncPeriod;
+    private final SyncSettingsEditor.PeriodListener mPeriodListener;
 
     /**
      * Construct this instance with the default period of the sync.
      * @param defaultPeriod default period of the automatic sync.
+     * @param fallbackExecutorConfig configuration of the thread pool for the fallback sync.
      */
-    /* package */ Eligor(int defaultPeriod) {
+    /* package */ Eligor(int defaultPeriod, @Nonnull FallbackExecutorConfig fallbackExecutorConfig) {
         mDefaultPeriod = defaultPeriod;
-        mSyncManagers = new HashMap<String, IPeriodicSyncManager>();
+        mFallbackExecutor = new FallbackRunnableExecutor(fallbackExecutorConfig);
+        mSyncManagers = new PeriodicSyncManagerRegistry();
+        mMasterSyncState = MasterSyncState.getInstance();
+        mStatusCache = new SyncStatusCache();
+        mFallbackRunLog = new FallbackRunLog();
+        mFallbackBackoff = new FallbackBackoff(fallbackExecutorConfig);
+        mEditorExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, SyncSettingsEditor.TAG);
+            }
+        });
+        mDuplicateRequestFilter = new DuplicateRequestFilter(mStatusCache);
+        mFallbackListener = new FallbackSyncDispatcher.Listener() {
+            @Override
+            public void onFallbackStart(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras) {
+                mDuplicateRequestFilter.onFallbackDequeued(manager.getAuthority(), extras);
+            }
+
+            @Override
+            public void onFallbackFinish(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId, boolean succeeded) {
+                mFallbackRunLog.recordRun(manager.getAuthority(), System.currentTimeMillis());
+                if (succeeded) {
+                    mFallbackBackoff.reset(manager.getAuthority());
+                }
+                completeJournal(journalId);
+            }
+
+            @Override
+            public void onFallbackResult(@Nonnull IPeriodicSyncManager manager, @Nonnull FallbackResult result) {
+                mAdaptiveSyncPeriod.onResult(manager, result);
+            }
+
+            @Override
+            public void onFallbackRetry(@Nonnull IPeriodicSyncManager manager, @Nonnull List<Bundle> extrasList, @Nonnull RetryableSyncException e) {
+                scheduleRetry(manager, extrasList, e);
+            }
+
+            @Override
+            public void onFallbackDiscard(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId) {
+                Log.w(TAG, "fallback sync of " + manager.getAuthority() + " is discarded to make room for a new one.");
+                mDuplicateRequestFilter.onFallbackDequeued(manager.getAuthority(), extras);
+                completeJournal(journalId);
+            }
+
+            @Override
+            public void onFallbackCancel(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId) {
+                mDuplicateRequestFilter.onFallbackDequeued(manager.getAuthority(), extras);
+                completeJournal(journalId);
+            }
+        };
+        File journalFile = fallbackExecutorConfig.getJournalFile();
+        mFallbackJournal = journalFile != null ? FallbackJournal.open(journalFile) : null;
+        mCursorStore = openCursorStore(fallbackExecutorConfig.getCursorFile());
+        mTimer = new SyncTimer();
+        mFallbackLanes = new FallbackLanes(mFallbackExecutor, mTimer,
+                fallbackExecutorConfig.getLaneCapacity(), fallbackExecutorConfig.getMaxBatchSize());
+        mRequestCoalescer = new SyncRequestCoalescer(mTimer, new SyncRequestCoalescer.Dispatcher() {
+            @Override
+            public void dispatch(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle args, boolean enableFallback) {
+                if (mSyncManagers.get(manager.getAuthority()) != manager) {
+                    return; // unregistered while waiting
+                }
+                dispatchSync(manager, args, enableFallback, isMasterSyncEnabled());
+            }
+        });
+        mFallbackScheduler = new FallbackScheduler(mTimer, mMasterSyncState, mFallbackRunLog, new FallbackScheduler.Dispatcher() {
+            @Override
+            public void dispatch(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle args) {
+                if (mSyncManagers.get(manager.getAuthority()) != manager) {
+                    return; // unregistered while waiting
+                }
+                if (!mStatusCache.get(manager, SyncStatusCache.FLAG_ENABLED)) {
+                    return; // disabled while waiting
+                }
+                dispatchSync(manager, args, true, false);
+            }
+        });
+        mAdaptiveSyncPeriod = new AdaptiveSyncPeriod(new AdaptiveSyncPeriod.Applier() {
+            @Override
+            public void apply(@Nonnull IPeriodicSyncManager manager, int period, @Nullable Bundle args) {
+                if (mSyncManagers.get(manager.getAuthority()) != manager) {
+                    return; // unregistered while running
+                }
+                if (!mStatusCache.get(manager, SyncStatusCache.FLAG_ENABLED)) {
+                    return; // the sync is disabled, and the fallback schedule is disarmed until enabled
+                }
+                Log.d(TAG, "sync period of " + manager.getAuthority() + " is adapted to " + period + " sec.");
+                if (args == null) {
+                    manager.applySyncPeriod(period);
+                } else {
+                    manager.applySyncPeriod(period, args);
+                }
+                if (manager instanceof AbstractPeriodicSyncManager && ((AbstractPeriodicSyncManager) manager).getSyncPeriod() != period) {
+                    Log.d(TAG, "adapted sync period of " + manager.getAuthority() + " has not been applied.");
+                    return;
+                }
+                mFallbackScheduler.onSyncPeriodApplied(manager, period, args, true);
+            }
+        });
+        mPeriodListener = new SyncSettingsEditor.PeriodListener() {
+            @Override
+            public void onSyncPeriodApplied(@Nonnull IPeriodicSyncManager manager, int period, @Nullable Bundle args) {
+                mFallbackScheduler.onSyncPeriodApplied(manager, period, args, mStatusCache.get(manager, SyncStatusCache.FLAG_ENABLED));
+                int applied = AbstractPeriodicSyncManager.syncPeriodOf(manager);
+                mAdaptiveSyncPeriod.onSyncPeriodApplied(manager, applied != AbstractPeriodicSyncManager.PERIOD_UNKNOWN ? applied : period, args);
+            }
+
+            @Override
+            public void onSyncEnabledChanged(@Nonnull IPeriodicSyncManager manager, boolean enabled) {
+                mFallbackScheduler.setEnabled(manager.getAuthority(), enabled);
+            }
+        };
     }
 
     /**
@@ -50,49 +192,138 @@ public final class Eligor {
      * @param defaultPeriod default period of the automatic sync.
      */
     public static void initialize(int defaultPeriod) {
+        initialize(defaultPeriod, FallbackExecutorConfig.DEFAULT);
+    }
+
+    /**
+     * Initialize singleton instance of this class.
+     * @param defaultPeriod default period of the automatic sync.
+     * @param fallbackExecutorConfig configuration of the thread pool for the fallback sync.
+     */
+    public static void initialize(int defaultPeriod, @Nonnull FallbackExecutorConfig fallbackExecutorConfig) {
         if (sInstance != null) {
             Log.i(TAG, TAG + " is already initialized.");
             return;
         }
         synchronized (Eligor.class) {
             if (sInstance == null) {
-                sInstance = new Eligor(defaultPeriod);
+                sInstance = new Eligor(defaultPeriod, fallbackExecutorConfig);
             }
         }
     }
 
     /**
      * Returns a singleton instance of this class.
+     * This method never takes a lock, so it is safe to call from any thread as often as needed.
      * @return this instance.
      */
-    public static synchronized Eligor getInstance() {
-        if (sInstance == null) {
+    public static Eligor getInstance() {
+        Eligor instance = sInstance;
+        if (instance == null) {
             throw new IllegalStateException(TAG + " is not initialized yet. Call initialize() first.");
         }
-        return sInstance;
+        return instance;
+    }
+
+    /**
+     * Terminate and release all references of this class, waiting for the works in progress up to {@link #DEFAULT_DESTROY_TIMEOUT_MILLIS}.
+     * See {@link #destroy(long)}.
+     */
+    public static void destroy() {
+        destroy(DEFAULT_DESTROY_TIMEOUT_MILLIS);
     }
 
     /**
      * Terminate and release all references of this class.
+     * New requests are no longer accepted, and the running fallback syncs and the pending settings changes are given time to finish.
+     * The sync requests waiting in their coalescing windows are dispatched at once.
+     * The queued fallback syncs that are in the fallback journal are left there to be performed on the next launch,
+     * and the others are performed before the timeout.
+     * The sync settings persisted by the registered managers are flushed, see {@link #flushSyncStates()},
+     * and the {@link com.eligor.WriteBehindSyncStateStore}s are closed, so their writer threads are stopped.
+     * The fallback syncs still running at the timeout are interrupted, and the threads of this instance are stopped.
+     * @param timeoutMillis the maximum time to wait for the works in progress, 0 not to wait.
+     * @return true if all of the works have finished in time, false if some of them are interrupted or dropped.
      */
-    public static synchronized void destroy() {
-        sInstance = null;
+    public static boolean destroy(long timeoutMillis) {
+        Eligor instance;
+        synchronized (Eligor.class) {
+            instance = sInstance;
+            sInstance = null;
+        }
+        return instance == null || instance.release(timeoutMillis);
+    }
+
+    private boolean release(long timeoutMillis) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        // the timers won't bring new works any more. the pending retries stay in the journal, if any.
+        mFallbackScheduler.release();
+        int flushed = mRequestCoalescer.shutdown();
+        if (flushed > 0) {
+            Log.i(TAG, flushed + " coalesced sync request(s) are dispatched without waiting for their windows.");
+        }
+        mTimer.shutdown();
+        int handedOver = mFallbackLanes.shutdown(mFallbackJournal != null);
+        if (handedOver > 0) {
+            Log.i(TAG, handedOver + " queued fallback sync(s) are left to the journal.");
+        }
+        mFallbackExecutor.shutdown();
+        mEditorExecutor.shutdown();
+        boolean terminated = false;
+        try {
+            terminated = mFallbackExecutor.awaitTermination(Math.max(0L, deadline - SystemClock.elapsedRealtime()))
+                    && mEditorExecutor.awaitTermination(Math.max(0L, deadline - SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mFallbackJournal != null) {
+            // close before the interruption, so that the interrupted runs are not completed, and recovered on the next launch.
+            mFallbackJournal.close();
+        }
+        // after the editor has drained, so the last of the applied changes are written as well.
+        closeSyncStates();
+        if (!terminated) {
+            int cancelled = mFallbackLanes.cancelAll();
+            mFallbackExecutor.shutdownNow();
+            mEditorExecutor.shutdownNow();
+            Log.w(TAG, "timed out to drain the works. " + cancelled + " fallback sync(s) are interrupted or dropped.");
+        }
+        mMasterSyncState.release();
+        mStatusCache.release();
+        return terminated;
     }
 
     /**
      * Checks the settings whether the master automatic periodic sync is enabled or not on the phone.
+     * The value is served from {@link com.eligor.MasterSyncState}, so this won't reach the system server unless the setting has changed.
      * @return true if enabled on the master setting, false otherwise.
      */
     public boolean isMasterSyncEnabled() {
-        return ContentResolver.getMasterSyncAutomatically();
+        return mMasterSyncState.isEnabled();
+    }
+
+    /**
+     * Returns the cache of the master automatic sync setting used by this instance.
+     * @return master sync state.
+     */
+    public @Nonnull MasterSyncState getMasterSyncState() {
+        return mMasterSyncState;
     }
 
     /**
      * Register periodic sync manager instance.
+     * If the fallback journal is enabled, the fallback runs of the authority left by the previous process are performed again.
+     * The persisted state of the manager, if any, starts loading on a background thread.
      * @param manager periodic sync manager for the {@link android.accounts.Account} and authority.
      */
-    public void registerPeriodicSyncManager(IPeriodicSyncManager manager) {
-        mSyncManagers.put(manager.getAuthority(), manager);
+    public void registerPeriodicSyncManager(@Nonnull IPeriodicSyncManager manager) {
+        mSyncManagers.register(manager);
+        if (manager instanceof AbstractPeriodicSyncManager) {
+            ((AbstractPeriodicSyncManager) manager).prefetchState(mEditorExecutor);
+        }
+        if (mFallbackJournal != null) {
+            recoverFallbackSync(manager);
+        }
     }
 
     /**
@@ -109,11 +340,109 @@ public final class Eligor {
      * @param authority the periodic sync manager is associated with.
      */
     public void unregisterPeriodicSyncManager(String authority) {
-        mSyncManagers.remove(authority);
+        mSyncManagers.unregister(authority);
+        mStatusCache.remove(authority);
+        mFallbackRunLog.remove(authority);
+        mRequestCoalescer.cancel(authority);
+        mFallbackScheduler.cancel(authority);
+        mAdaptiveSyncPeriod.remove(authority);
+        cancelFallbackSync(authority);
+        mDuplicateRequestFilter.remove(authority);
+    }
+
+    /**
+     * Returns the incremental sync cursor of the authority, the same one the {@link com.eligor.CursorFallbackRunnable} is given,
+     * so that the system sync adapter can share the progress with the fallback runs.
+     * @param authority the periodic sync manager is associated with.
+     * @return the cursor, or null if no cursor store is configured by {@link com.eligor.FallbackExecutorConfig.Builder#setCursorFile(java.io.File)}.
+     */
+    public @Nullable SyncCursor getSyncCursor(@Nonnull String authority) {
+        return mCursorStore != null ? mCursorStore.getCursor(authority) : null;
+    }
+
+    /**
+     * Apply the periodic syncs persisted by the registered managers again, with their persisted extra arguments, in a single pass.
+     * Call this after registering the managers when the system may have lost the periodic syncs,
+     * e.g. on boot, or after the data of the app has been restored on a new device.
+     * The periods are applied even if the diffing mode would skip them, and the fallback schedule follows them.
+     * The periods persisted without their extra arguments, by the former versions, are not restored.
+     * @return the number of the periodic syncs restored.
+     */
+    public int restore() {
+        int restored = 0;
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            if (!(manager instanceof AbstractPeriodicSyncManager)) {
+                continue;
+            }
+            SyncState state = ((AbstractPeriodicSyncManager) manager).restoreSyncPeriod();
+            if (state != null) {
+                mPeriodListener.onSyncPeriodApplied(manager, state.getPeriod(), state.getExtras());
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Write the sync settings persisted by the registered managers to the storage device,
+     * including the ones buffered by {@link com.eligor.WriteBehindSyncStateStore}.
+     * Blocks until done, so call this off the main thread.
+     */
+    public void flushSyncStates() {
+        for (SyncStateStore store : getSyncStateStores()) {
+            try {
+                store.flush();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "failed to flush the sync states.", e);
+            }
+        }
+    }
+
+    /**
+     * Flush the stores of the registered managers, and close the {@link com.eligor.WriteBehindSyncStateStore}s among them.
+     */
+    private void closeSyncStates() {
+        for (SyncStateStore store : getSyncStateStores()) {
+            try {
+                if (store instanceof WriteBehindSyncStateStore) {
+                    ((WriteBehindSyncStateStore) store).close();
+                } else {
+                    store.flush();
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "failed to flush the sync states.", e);
+            }
+        }
+    }
+
+    /**
+     * @return the stores of the registered managers, each of them once even if shared.
+     */
+    private Set<SyncStateStore> getSyncStateStores() {
+        Map<SyncStateStore, Boolean> stores = new IdentityHashMap<SyncStateStore, Boolean>();
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            if (manager instanceof AbstractPeriodicSyncManager) {
+                SyncStateStore store = ((AbstractPeriodicSyncManager) manager).getStateStore();
+                if (store != null) {
+                    stores.put(store, Boolean.TRUE);
+                }
+            }
+        }
+        return stores.keySet();
+    }
+
+    /**
+     * Start a batch of sync settings changes.
+     * The changes are applied with the minimum set of operations when the batch is committed.
+     * @return a new editor.
+     */
+    public @Nonnull SyncSettingsEditor edit() {
+        return new SyncSettingsEditor(mSyncManagers, mStatusCache, mPeriodListener, mEditorExecutor, mDefaultPeriod);
     }
 
     /**
      * Apply automatic sync period with default value for all of the registered {@link com.eligor.IPeriodicSyncManager}.
+     * While the master sync is disabled, the {@link com.eligor.FallbackRunnable} of each manager runs on the period instead.
      */
     public void applySyncPeriod() {
         applySyncPeriod(mDefaultPeriod);
@@ -132,8 +461,9 @@ public final class Eligor {
      * @param period automatic sync period in seconds.
      */
     public void applySyncPeriod(int period) {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
             manager.applySyncPeriod(period);
+            mPeriodListener.onSyncPeriodApplied(manager, period, null);
         }
     }
 
@@ -143,8 +473,9 @@ public final class Eligor {
      * @param args extra arguments for the {@link android.content.AbstractThreadedSyncAdapter}.
      */
     public void applySyncPeriod(int period, Bundle args) {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
             manager.applySyncPeriod(period, args);
+            mPeriodListener.onSyncPeriodApplied(manager, period, args);
         }
     }
 
@@ -168,6 +499,7 @@ public final class Eligor {
             return;
         }
         manager.applySyncPeriod(period);
+        mPeriodListener.onSyncPeriodApplied(manager, period, null);
     }
 
     /**
@@ -192,6 +524,7 @@ public final class Eligor {
             return;
         }
         manager.applySyncPeriod(period, args);
+        mPeriodListener.onSyncPeriodApplied(manager, period, args);
     }
 
     /**
@@ -201,14 +534,18 @@ public final class Eligor {
         requestSync(false);
     }
 
-    public void requestSync(boolean enableFallback) {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
-            if (isMasterSyncEnabled()) {
-                manager.requestSync();
-            } else if (enableFallback) {
-                FallbackRunnableExecutor.process(new FallbackSyncDispatcher(manager, null));
-            }
+    /**
+     * Request on demand sync for all of the registered {@link com.eligor.IPeriodicSyncManager}.
+     * @param enableFallback true to run the {@link com.eligor.FallbackRunnable} if the master sync is disabled.
+     * @return true if all of the requests are accepted, false if any of the fallback runs is rejected.
+     */
+    public boolean requestSync(boolean enableFallback) {
+        boolean masterSyncEnabled = isMasterSyncEnabled();
+        boolean accepted = true;
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            accepted &= requestSync(manager, null, enableFallback, masterSyncEnabled);
         }
+        return accepted;
     }
 
     /**
@@ -219,14 +556,19 @@ public final class Eligor {
         requestSync(args, false);
     }
 
-    public void requestSync(Bundle args, boolean enableFallbak) {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
-            if (isMasterSyncEnabled()) {
-                manager.requestSync(args);
-            } else if (enableFallbak) {
-                FallbackRunnableExecutor.process(new FallbackSyncDispatcher(manager, args));
-            }
+    /**
+     * Request on demand sync for all of the registered {@link com.eligor.IPeriodicSyncManager} with the extra arguments.
+     * @param args extra arguments for the {@link android.content.AbstractThreadedSyncAdapter}.
+     * @param enableFallbak true to run the {@link com.eligor.FallbackRunnable} if the master sync is disabled.
+     * @return true if all of the requests are accepted, false if any of the fallback runs is rejected.
+     */
+    public boolean requestSync(Bundle args, boolean enableFallbak) {
+        boolean masterSyncEnabled = isMasterSyncEnabled();
+        boolean accepted = true;
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            accepted &= requestSync(manager, args, enableFallbak, masterSyncEnabled);
         }
+        return accepted;
     }
 
     /**
@@ -237,17 +579,19 @@ public final class Eligor {
         requestSync(authority, false);
     }
 
-    public void requestSync(String authority, boolean enableFallback) {
+    /**
+     * Request on demand sync for the specified authority's {@link com.eligor.IPeriodicSyncManager}.
+     * @param authority the periodic sync manager is associated with.
+     * @param enableFallback true to run the {@link com.eligor.FallbackRunnable} if the master sync is disabled.
+     * @return true if the request is accepted, false if the authority is unknown or the fallback run is rejected.
+     */
+    public boolean requestSync(String authority, boolean enableFallback) {
         IPeriodicSyncManager manager = mSyncManagers.get(authority);
         if (manager == null) {
             Log.i(TAG, "unknown authority for the request. ensure to call registerPeriodicSyncManager(IPeriodicSyncManager) first.");
-            return;
-        }
-        if (isMasterSyncEnabled()) {
-            manager.requestSync();
-        } else if (enableFallback) {
-            FallbackRunnableExecutor.process(new FallbackSyncDispatcher(manager, null));
+            return false;
         }
+        return requestSync(manager, null, enableFallback, isMasterSyncEnabled());
     }
 
     /**
@@ -259,30 +603,268 @@ public final class Eligor {
         requestSync(authority, args, false);
     }
 
-    public void requestSync(String authority, Bundle args, boolean enableFallback) {
+    /**
+     * Request on demand sync for the specified authority's {@link com.eligor.IPeriodicSyncManager}.
+     * @param authority the periodic sync manager is associated with.
+     * @param args extra arguments for the {@link android.content.AbstractThreadedSyncAdapter}.
+     * @param enableFallback true to run the {@link com.eligor.FallbackRunnable} if the master sync is disabled.
+     * @return true if the request is accepted, false if the authority is unknown or the fallback run is rejected.
+     */
+    public boolean requestSync(String authority, Bundle args, boolean enableFallback) {
         IPeriodicSyncManager manager = mSyncManagers.get(authority);
         if (manager == null) {
             Log.i(TAG, "unknown authority for the request. ensure to call registerPeriodicSyncManager(IPeriodicSyncManager) first.");
-            return;
+            return false;
+        }
+        return requestSync(manager, args, enableFallback, isMasterSyncEnabled());
+    }
+
+    /**
+     * Set the coalescing window for all of the authorities that have no window of their own.
+     * The sync requests of an authority in the window are collapsed into one, that is dispatched when the window closes.
+     * @param windowMillis the window in milliseconds, 0 to dispatch each request immediately.
+     */
+    public void setCoalescingWindow(long windowMillis) {
+        mRequestCoalescer.setDefaultWindow(windowMillis);
+    }
+
+    /**
+     * Set the coalescing window for the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @param windowMillis the window in milliseconds, 0 to dispatch each request immediately.
+     */
+    public void setCoalescingWindow(String authority, long windowMillis) {
+        mRequestCoalescer.setWindow(authority, windowMillis);
+    }
+
+    /**
+     * Set the policy to merge the extra arguments of the coalesced requests. {@link ExtrasMergePolicy#UNION} by default.
+     * @param policy the merge policy.
+     */
+    public void setExtrasMergePolicy(@Nonnull ExtrasMergePolicy policy) {
+        mRequestCoalescer.setMergePolicy(policy);
+    }
+
+    /**
+     * Set the execution deadline of the fallback runs for all of the authorities that have no deadline of their own.
+     * A run that overruns the deadline is cancelled, interrupted and counted as a timeout.
+     * The following runs of the authority still wait for it to return, so that the runs of an authority never overlap.
+     * Note that the thread of the run is not reusable until the {@link com.eligor.FallbackRunnable} returns,
+     * so the runs that ignore the interruption may exhaust the pool; size {@link FallbackExecutorConfig.Builder#setMaxPoolSize(int)} with a reserve for them.
+     * @param deadlineMillis the deadline in milliseconds, 0 for no deadline.
+     */
+    public void setFallbackDeadline(long deadlineMillis) {
+        mFallbackLanes.setDefaultDeadline(deadlineMillis);
+    }
+
+    /**
+     * Set the execution deadline of the fallback runs of the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @param deadlineMillis the deadline in milliseconds, 0 for no deadline.
+     */
+    public void setFallbackDeadline(String authority, long deadlineMillis) {
+        mFallbackLanes.setDeadline(authority, deadlineMillis);
+    }
+
+    /**
+     * @return the number of the fallback runs that have overrun the deadline.
+     */
+    public int getFallbackTimeoutCount() {
+        return mFallbackLanes.getTimeoutCount();
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the number of the fallback runs of the authority that have overrun the deadline.
+     */
+    public int getFallbackTimeoutCount(String authority) {
+        return mFallbackLanes.getTimeoutCount(authority);
+    }
+
+    /**
+     * Let the sync period of all of the authorities that have no bounds of their own follow the results of their fallback runs.
+     * The period is lengthened while the runs keep finding nothing to change, and shortened while they keep finding changes,
+     * within the bounds. Only the {@link com.eligor.ResultFallbackRunnable} reports the results.
+     * A period applied by {@link #applySyncPeriod(String, int)} and the like starts the adaptation over.
+     * @param minPeriod the shortest period in seconds, 0 with maxPeriod 0 to disable.
+     * @param maxPeriod the longest period in seconds, 0 with minPeriod 0 to disable.
+     */
+    public void setAdaptiveSyncPeriod(int minPeriod, int maxPeriod) {
+        mAdaptiveSyncPeriod.setDefaultBounds(minPeriod, maxPeriod);
+    }
+
+    /**
+     * Let the sync period of the specified authority follow the results of its fallback runs, see {@link #setAdaptiveSyncPeriod(int, int)}.
+     * @param authority the periodic sync manager is associated with.
+     * @param minPeriod the shortest period in seconds, 0 with maxPeriod 0 to disable.
+     * @param maxPeriod the longest period in seconds, 0 with minPeriod 0 to disable.
+     */
+    public void setAdaptiveSyncPeriod(String authority, int minPeriod, int maxPeriod) {
+        mAdaptiveSyncPeriod.setBounds(authority, minPeriod, maxPeriod);
+    }
+
+    /**
+     * Enables or disables the suppression of the duplicate sync requests.
+     * When enabled, a request is dropped if the sync of the authority is already pending with equivalent extras,
+     * or the fallback run with equivalent extras is already queued.
+     * @param enabled true to suppress the duplicates.
+     */
+    public void setDuplicateSuppressionEnabled(boolean enabled) {
+        mDuplicateRequestFilter.setEnabled(enabled);
+    }
+
+    /**
+     * @return true if the duplicate sync requests are suppressed, false otherwise.
+     */
+    public boolean isDuplicateSuppressionEnabled() {
+        return mDuplicateRequestFilter.isEnabled();
+    }
+
+    /**
+     * @return the number of the sync requests that have been dropped as duplicates.
+     */
+    public int getSuppressedRequestCount() {
+        return mDuplicateRequestFilter.getSuppressedCount();
+    }
+
+    private boolean requestSync(IPeriodicSyncManager manager, Bundle args, boolean enableFallback, boolean masterSyncEnabled) {
+        if (!masterSyncEnabled && !enableFallback) {
+            return true;
         }
-        if (isMasterSyncEnabled()) {
-            manager.requestSync(args);
+        if (mRequestCoalescer.offer(manager, args, enableFallback)) {
+            return true;
+        }
+        return dispatchSync(manager, args, enableFallback, masterSyncEnabled);
+    }
+
+    private boolean dispatchSync(IPeriodicSyncManager manager, Bundle args, boolean enableFallback, boolean masterSyncEnabled) {
+        return dispatchSync(manager, args, enableFallback, masterSyncEnabled, FallbackJournal.NO_ID);
+    }
+
+    /**
+     * @param journalId the id of the run in the fallback journal if it is already persisted, or {@link FallbackJournal#NO_ID} to persist it if needed.
+     */
+    private boolean dispatchSync(IPeriodicSyncManager manager, Bundle args, boolean enableFallback, boolean masterSyncEnabled, long journalId) {
+        if (masterSyncEnabled) {
+            completeJournal(journalId); // the framework takes care of it from now on
+            if (!mDuplicateRequestFilter.acceptSyncRequest(manager, args)) {
+                return true;
+            }
+            if (args == null) {
+                manager.requestSync();
+            } else {
+                manager.requestSync(args);
+            }
         } else if (enableFallback) {
-            FallbackRunnableExecutor.process(new FallbackSyncDispatcher(manager, args));
+            if (!mDuplicateRequestFilter.acceptFallbackRequest(manager.getAuthority(), args)) {
+                completeJournal(journalId);
+                return true;
+            }
+            if (journalId == FallbackJournal.NO_ID && mFallbackJournal != null) {
+                journalId = mFallbackJournal.append(manager.getAuthority(), args);
+            }
+            if (!mFallbackLanes.submit(new FallbackSyncDispatcher(manager, args, journalId, mCursorStore, mFallbackListener))) {
+                mDuplicateRequestFilter.onFallbackDequeued(manager.getAuthority(), args);
+                completeJournal(journalId);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SyncCursorStore openCursorStore(File cursorFile) {
+        if (cursorFile == null) {
+            return null;
+        }
+        try {
+            return SyncCursorStore.open(cursorFile);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to open the sync cursor store " + cursorFile + ". the cursors are not available.", e);
+            return null;
+        }
+    }
+
+    private void recoverFallbackSync(IPeriodicSyncManager manager) {
+        List<FallbackJournal.Entry> entries = mFallbackJournal.takeRecovered(manager.getAuthority());
+        if (entries.isEmpty()) {
+            return;
+        }
+        Log.i(TAG, entries.size() + " fallback sync(s) of " + manager.getAuthority() + " recovered.");
+        boolean masterSyncEnabled = isMasterSyncEnabled();
+        for (FallbackJournal.Entry entry : entries) {
+            dispatchSync(manager, entry.getExtras(), true, masterSyncEnabled, entry.getId());
+        }
+    }
+
+    private void completeJournal(long journalId) {
+        if (mFallbackJournal != null) {
+            mFallbackJournal.complete(journalId);
+        }
+    }
+
+    private void scheduleRetry(final IPeriodicSyncManager manager, final List<Bundle> extrasList, RetryableSyncException e) {
+        final int generation = mFallbackBackoff.getGeneration(manager.getAuthority());
+        long delay = mFallbackBackoff.nextDelay(manager.getAuthority(), e.getRetryAfterMillis());
+        if (delay == FallbackBackoff.GIVE_UP) {
+            Log.w(TAG, "fallback sync of " + manager.getAuthority() + " has failed too many times in a row. giving up.", e);
+            return;
+        }
+        Log.i(TAG, "fallback sync of " + manager.getAuthority() + " has failed. retrying in " + delay + " ms.", e);
+        // persist the retries before the failed runs are completed, so that they survive the process in the meantime.
+        final long[] journalIds = new long[extrasList.size()];
+        if (mFallbackJournal != null) {
+            for (int i = 0; i < journalIds.length; i++) {
+                journalIds[i] = mFallbackJournal.append(manager.getAuthority(), extrasList.get(i));
+            }
+        }
+        try {
+            mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSyncManagers.get(manager.getAuthority()) != manager
+                            || mFallbackBackoff.getGeneration(manager.getAuthority()) != generation) {
+                        for (long journalId : journalIds) {
+                            completeJournal(journalId);
+                        }
+                        return; // unregistered or cancelled while waiting
+                    }
+                    boolean masterSyncEnabled = isMasterSyncEnabled();
+                    for (int i = 0; i < journalIds.length; i++) {
+                        dispatchSync(manager, extrasList.get(i), true, masterSyncEnabled, journalIds[i]);
+                    }
+                }
+            }, delay);
+        } catch (RejectedExecutionException ignored) {
+            Log.w(TAG, "the retry of " + manager.getAuthority() + " is dropped since " + TAG + " has been destroyed.");
+        }
+    }
+
+    private void cancelFallbackSync(String authority) {
+        mFallbackBackoff.cancel(authority);
+        int cancelled = mFallbackLanes.cancel(authority);
+        if (cancelled > 0) {
+            Log.i(TAG, cancelled + " fallback sync(s) of " + authority + " cancelled.");
         }
     }
 
     /**
      * Request to cancel currently working or enqueued sync operation for all of the registered {@link com.eligor.IPeriodicSyncManager}.
+     * The fallback syncs are cancelled too: the queued and the retrying ones are dropped, and the running ones are interrupted.
+     * The periodic fallback schedules are left as they are.
      */
     public void cancelSync() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
             manager.cancelSync();
+            mStatusCache.invalidate(manager.getAuthority(), SyncStatusCache.FLAG_ACTIVE | SyncStatusCache.FLAG_PENDING);
+            mRequestCoalescer.cancel(manager.getAuthority());
+            cancelFallbackSync(manager.getAuthority());
         }
     }
 
     /**
      * Request to cancel currently working or enqueued sync operation for the specified authority's {@link com.eligor.IPeriodicSyncManager}.
+     * The fallback syncs are cancelled too: the queued and the retrying ones are dropped, and the running one is interrupted.
+     * The periodic fallback schedule is left as it is.
      * @param authority the periodic sync manager is associated with.
      */
     public void cancelSync(String authority) {
@@ -292,14 +874,19 @@ public final class Eligor {
             return;
         }
         manager.cancelSync();
+        mStatusCache.invalidate(authority, SyncStatusCache.FLAG_ACTIVE | SyncStatusCache.FLAG_PENDING);
+        mRequestCoalescer.cancel(authority);
+        cancelFallbackSync(authority);
     }
 
     /**
      * Set sync setting as enabled for all of the registered {@link com.eligor.IPeriodicSyncManager}.
      */
     public void enableSync() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
             manager.enableSync();
+            mStatusCache.invalidate(manager.getAuthority(), SyncStatusCache.FLAG_ENABLED);
+            mPeriodListener.onSyncEnabledChanged(manager, true);
         }
     }
 
@@ -314,14 +901,18 @@ public final class Eligor {
             return;
         }
         manager.enableSync();
+        mStatusCache.invalidate(authority, SyncStatusCache.FLAG_ENABLED);
+        mPeriodListener.onSyncEnabledChanged(manager, true);
     }
 
     /**
      * Set sync setting as disabled for all of the registered {@link com.eligor.IPeriodicSyncManager}.
      */
     public void disableSync() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
             manager.disableSync();
+            mStatusCache.invalidate(manager.getAuthority(), SyncStatusCache.FLAG_ENABLED);
+            mPeriodListener.onSyncEnabledChanged(manager, false);
         }
     }
 
@@ -336,14 +927,17 @@ public final class Eligor {
             return;
         }
         manager.disableSync();
+        mStatusCache.invalidate(authority, SyncStatusCache.FLAG_ENABLED);
+        mPeriodListener.onSyncEnabledChanged(manager, false);
     }
 
     /**
      * Set the {@link android.content.ContentProvider} as syncable for all of the registered {@link com.eligor.IPeriodicSyncManager}.
      */
     public void setSyncable() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
             manager.setSyncable();
+            mStatusCache.invalidate(manager.getAuthority(), SyncStatusCache.FLAG_SYNCABLE);
         }
     }
 
@@ -358,14 +952,16 @@ public final class Eligor {
             return;
         }
         manager.setSyncable();
+        mStatusCache.invalidate(authority, SyncStatusCache.FLAG_SYNCABLE);
     }
 
     /**
      * Set the {@link android.content.ContentProvider} as not syncable for all of the registered {@link com.eligor.IPeriodicSyncManager}.
      */
     public void setNotSyncable() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
             manager.setNotSyncable();
+            mStatusCache.invalidate(manager.getAuthority(), SyncStatusCache.FLAG_SYNCABLE);
         }
     }
 
@@ -380,6 +976,7 @@ public final class Eligor {
             return;
         }
         manager.setNotSyncable();
+        mStatusCache.invalidate(authority, SyncStatusCache.FLAG_SYNCABLE);
     }
 
     /**
@@ -387,8 +984,8 @@ public final class Eligor {
      * @return true all sync is enabled, false otherwise.
      */
     public boolean isSyncEnabled() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
-            if (!manager.isSyncEnabled()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            if (!mStatusCache.get(manager, SyncStatusCache.FLAG_ENABLED)) {
                 return false;
             }
         }
@@ -406,7 +1003,7 @@ public final class Eligor {
             Log.i(TAG, "unknown authority for the request. ensure to call registerPeriodicSyncManager(IPeriodicSyncManager) first.");
             return false;
         }
-        return manager.isSyncEnabled();
+        return mStatusCache.get(manager, SyncStatusCache.FLAG_ENABLED);
     }
 
     /**
@@ -414,8 +1011,8 @@ public final class Eligor {
      * @return true all sync is active, false otherwise.
      */
     public boolean isSyncActive() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
-            if (!manager.isSyncActive()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            if (!mStatusCache.get(manager, SyncStatusCache.FLAG_ACTIVE)) {
                 return false;
             }
         }
@@ -433,7 +1030,7 @@ public final class Eligor {
             Log.i(TAG, "unknown authority for the request. ensure to call registerPeriodicSyncManager(IPeriodicSyncManager) first.");
             return false;
         }
-        return manager.isSyncActive();
+        return mStatusCache.get(manager, SyncStatusCache.FLAG_ACTIVE);
     }
 
     /**
@@ -441,8 +1038,8 @@ public final class Eligor {
      * @return true all sync is pending, false otherwise.
      */
     public boolean isSyncPending() {
-        for (IPeriodicSyncManager manager : mSyncManagers.values()) {
-            if (!manager.isSyncPending()) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            if (!mStatusCache.get(manager, SyncStatusCache.FLAG_PENDING)) {
                 return false;
             }
         }
@@ -460,7 +1057,7 @@ public final class Eligor {
             Log.i(TAG, "unknown authority for the request. ensure to call registerPeriodicSyncManager(IPeriodicSyncManager) first.");
             return false;
         }
-        return manager.isSyncPending();
+        return mStatusCache.get(manager, SyncStatusCache.FLAG_PENDING);
     }
 
     /**
@@ -474,6 +1071,23 @@ public final class Eligor {
             Log.i(TAG, "unknown authority for the request. ensure to call registerPeriodicSyncManager(IPeriodicSyncManager) first.");
             return false;
         }
-        return manager.isSyncable();
+        return mStatusCache.get(manager, SyncStatusCache.FLAG_SYNCABLE);
+    }
+
+    /**
+     * Takes the sync status of all of the registered {@link com.eligor.IPeriodicSyncManager} in a single pass.
+     * The status is served from the status cache, so this is much cheaper than asking each status of each authority one by one.
+     * @return immutable map of the status keyed by the authority, in the registration order.
+     */
+    public @Nonnull Map<String, SyncStatus> snapshot() {
+        IPeriodicSyncManager[] managers = mSyncManagers.managers();
+        Map<String, SyncStatus> snapshot = new LinkedHashMap<String, SyncStatus>(managers.length * 2);
+        for (IPeriodicSyncManager manager : managers) {
+            String authority = manager.getAuthority();
+            int flags = mStatusCache.getAll(manager, SyncStatusCache.FLAG_ALL);
+            snapshot.put(authority, new SyncStatus(manager.getAccount(), authority, flags,
+                    AbstractPeriodicSyncManager.syncPeriodOf(manager), mFallbackRunLog.getLastRun(authority)));
+        }
+        return Collections.unmodifiableMap(snapshot);
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import javax.annotation.Nullable;
+
+/**
+ * Policy to merge the extra arguments of the sync requests that are collapsed into one.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+public interface ExtrasMergePolicy {
+    /**
+     * Keeps the extra arguments of the latest request.
+     */
+    public static final ExtrasMergePolicy LATEST = new ExtrasMergePolicy() {
+        @Override
+        public Bundle merge(Bundle pending, Bundle incoming) {
+            return incoming;
+        }
+    };
+
+    /**
+     * Puts all of the extra arguments together. The latest value wins if the same key appears more than once.
+     */
+    public static final ExtrasMergePolicy UNION = new ExtrasMergePolicy() {
+        @Override
+        public Bundle merge(Bundle pending, Bundle incoming) {
+            if (pending == null) {
+                return incoming;
+            }
+            if (incoming != null) {
+                pending.putAll(incoming);
+            }
+            return pending;
+        }
+    };
+
+    /**
+     * Merges the extra arguments of the incoming request into the pending one.
+     * Both bundles are private copies, so the implementation may modify and return either of them.
+     * @param pending extra arguments of the pending request, null if the request has no arguments.
+     * @param incoming extra arguments of the incoming request, null if the request has no arguments.
+     * @return the merged arguments, may be null.
+     */
+    public @Nullable Bundle merge(@Nullable Bundle pending, @Nullable Bundle incoming);
+}
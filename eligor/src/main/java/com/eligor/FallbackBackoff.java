@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Capped exponential backoff with jitter for the retries of the failed fallback runs, counted per authority.
+ * The delay before the n-th retry in a row is drawn at random from the upper half of min(base * 2^(n - 1), max),
+ * so the retries of many clients failing at the same time spread out, while a retry never comes sooner than half of the backoff.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class FallbackBackoff {
+    /**
+     * Returned by {@link #nextDelay(String, long)} when the retries of the authority are exhausted.
+     */
+    public static final long GIVE_UP = -1L;
+    private final int mMaxRetries;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+    private final ConcurrentHashMap<String, Integer> mAttempts;
+    private final ConcurrentHashMap<String, Integer> mGenerations;
+
+    /* package */ FallbackBackoff(@Nonnull FallbackExecutorConfig config) {
+        this(config, new Random());
+    }
+
+    /* package */ FallbackBackoff(@Nonnull FallbackExecutorConfig config, @Nonnull Random random) {
+        mMaxRetries = config.getMaxRetries();
+        mBaseDelayMillis = config.getRetryBaseDelayMillis();
+        mMaxDelayMillis = config.getRetryMaxDelayMillis();
+        mRandom = random;
+        mAttempts = new ConcurrentHashMap<String, Integer>();
+        mGenerations = new ConcurrentHashMap<String, Integer>();
+    }
+
+    /**
+     * Count a failure of the authority, and compute the delay before the retry.
+     * @param authority the periodic sync manager is associated with.
+     * @param retryAfterMillis the minimum delay asked by the failed run, or {@link com.eligor.RetryableSyncException#NO_RETRY_AFTER}.
+     * @return the delay in milliseconds, or {@link #GIVE_UP} if the authority has failed too many times in a row.
+     */
+    public long nextDelay(String authority, long retryAfterMillis) {
+        int attempt;
+        while (true) {
+            Integer current = mAttempts.get(authority);
+            if (current == null) {
+                attempt = 1;
+                if (mAttempts.putIfAbsent(authority, attempt) == null) {
+                    break;
+                }
+            } else {
+                attempt = current + 1;
+                if (mAttempts.replace(authority, current, attempt)) {
+                    break;
+                }
+            }
+        }
+        if (attempt > mMaxRetries) {
+            mAttempts.remove(authority);
+            return GIVE_UP;
+        }
+        // shift no more than needed to reach the cap, so it never overflows.
+        long ceiling = mBaseDelayMillis;
+        for (int i = 1; i < attempt && ceiling < mMaxDelayMillis; i++) {
+            ceiling <<= 1;
+        }
+        ceiling = Math.min(ceiling, mMaxDelayMillis);
+        long half = ceiling / 2;
+        long delay = ceiling - half + (half > 0 ? (long) (mRandom.nextDouble() * (half + 1)) : 0);
+        return Math.max(Math.min(delay, ceiling), retryAfterMillis);
+    }
+
+    /**
+     * Forget the failures of the authority, after a successful run.
+     * @param authority the periodic sync manager is associated with.
+     */
+    public void reset(String authority) {
+        mAttempts.remove(authority);
+    }
+
+    /**
+     * Forget the failures of the authority, and invalidate the retries waiting for their delay.
+     * @param authority the periodic sync manager is associated with.
+     */
+    public void cancel(String authority) {
+        mAttempts.remove(authority);
+        while (true) {
+            Integer current = mGenerations.get(authority);
+            if (current == null) {
+                if (mGenerations.putIfAbsent(authority, 1) == null) {
+                    return;
+                }
+            } else if (mGenerations.replace(authority, current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A retry should be taken only if the generation of the authority has not changed while it was waiting.
+     * @param authority the periodic sync manager is associated with.
+     * @return the current generation of the retries of the authority.
+     */
+    public int getGeneration(String authority) {
+        Integer generation = mGenerations.get(authority);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the number of the failures of the authority in a row.
+     */
+    public int getAttempts(String authority) {
+        Integer attempts = mAttempts.get(authority);
+        return attempts == null ? 0 : attempts;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Process;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Configuration of the thread pool that runs the {@link com.eligor.FallbackRunnable}s, given to {@link Eligor#initialize(int, FallbackExecutorConfig)}.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class FallbackExecutorConfig {
+    /**
+     * Queue capacity that makes the work queue unbounded. Note that the pool never grows beyond the core size with an unbounded queue.
+     */
+    public static final int UNBOUNDED_QUEUE = Integer.MAX_VALUE;
+    /**
+     * Queue capacity that hands each work directly to a thread without queueing.
+     */
+    public static final int DIRECT_HANDOFF = 0;
+    public static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_CORE_POOL_SIZE = CPU_COUNT;
+    public static final int DEFAULT_MAX_POOL_SIZE = CPU_COUNT * 2 + 1;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    public static final int DEFAULT_QUEUE_CAPACITY = 10;
+    public static final int DEFAULT_LANE_CAPACITY = UNBOUNDED_QUEUE;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+    /**
+     * Max retries that disables the retry of the failed fallback runs.
+     */
+    public static final int NO_RETRY = 0;
+    public static final int DEFAULT_MAX_RETRIES = 10;
+    public static final long DEFAULT_RETRY_BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_RETRY_MAX_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final int DEFAULT_THREAD_PRIORITY = Process.THREAD_PRIORITY_BACKGROUND;
+    public static final long DEFAULT_TARGET_QUEUE_WAIT_MILLIS = 100L;
+    public static final FallbackExecutorConfig DEFAULT = new Builder().build();
+
+    /**
+     * What to do when both of the pool and the work queue are full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * Refuse the new work. The request reports it is not accepted, so the caller can back off.
+         */
+        REJECT,
+        /**
+         * Run the new work on the caller thread. This slows the caller down, so do not use it if requests come from the main thread.
+         */
+        CALLER_RUNS,
+        /**
+         * Drop the oldest queued work to make room for the new one.
+         */
+        DISCARD_OLDEST
+    }
+
+    private final int mCorePoolSize;
+    private final int mMaxPoolSize;
+    private final long mKeepAliveMillis;
+    private final int mQueueCapacity;
+    private final int mLaneCapacity;
+    private final int mMaxBatchSize;
+    private final RejectionPolicy mRejectionPolicy;
+    private final int mMaxRetries;
+    private final long mRetryBaseDelayMillis;
+    private final long mRetryMaxDelayMillis;
+    private final File mJournalFile;
+    private final File mCursorFile;
+    private final int mThreadPriority;
+    private final boolean mAdaptivePoolSize;
+    private final long mTargetQueueWaitMillis;
+
+    private FallbackExecutorConfig(Builder builder) {
+        mCorePoolSize = builder.mCorePoolSize;
+        mMaxPoolSize = builder.mMaxPoolSize;
+        mKeepAliveMillis = builder.mKeepAliveMillis;
+        mQueueCapacity = builder.mQueueCapacity;
+        mLaneCapacity = builder.mLaneCapacity;
+        mMaxBatchSize = builder.mMaxBatchSize;
+        mRejectionPolicy = builder.mRejectionPolicy;
+        mMaxRetries = builder.mMaxRetries;
+        mRetryBaseDelayMillis = builder.mRetryBaseDelayMillis;
+        mRetryMaxDelayMillis = builder.mRetryMaxDelayMillis;
+        mJournalFile = builder.mJournalFile;
+        mCursorFile = builder.mCursorFile;
+        mThreadPriority = builder.mThreadPriority;
+        mAdaptivePoolSize = builder.mAdaptivePoolSize;
+        mTargetQueueWaitMillis = builder.mTargetQueueWaitMillis;
+    }
+
+    public int getCorePoolSize() {
+        return mCorePoolSize;
+    }
+
+    public int getMaxPoolSize() {
+        return mMaxPoolSize;
+    }
+
+    public long getKeepAliveMillis() {
+        return mKeepAliveMillis;
+    }
+
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    public int getLaneCapacity() {
+        return mLaneCapacity;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    public @Nonnull RejectionPolicy getRejectionPolicy() {
+        return mRejectionPolicy;
+    }
+
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    public long getRetryBaseDelayMillis() {
+        return mRetryBaseDelayMillis;
+    }
+
+    public long getRetryMaxDelayMillis() {
+        return mRetryMaxDelayMillis;
+    }
+
+    public @Nullable File getJournalFile() {
+        return mJournalFile;
+    }
+
+    public @Nullable File getCursorFile() {
+        return mCursorFile;
+    }
+
+    public int getThreadPriority() {
+        return mThreadPriority;
+    }
+
+    public boolean isAdaptivePoolSize() {
+        return mAdaptivePoolSize;
+    }
+
+    public long getTargetQueueWaitMillis() {
+        return mTargetQueueWaitMillis;
+    }
+
+    /**
+     * Builder of the {@link com.eligor.FallbackExecutorConfig}.
+     * By default, the pool keeps a thread per CPU core, and runs them at the background priority.
+     */
+    public static final class Builder {
+        private int mCorePoolSize = DEFAULT_CORE_POOL_SIZE;
+        private int mMaxPoolSize = DEFAULT_MAX_POOL_SIZE;
+        private long mKeepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+        private int mQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private int mLaneCapacity = DEFAULT_LANE_CAPACITY;
+        private int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private RejectionPolicy mRejectionPolicy = RejectionPolicy.REJECT;
+        private int mMaxRetries = DEFAULT_MAX_RETRIES;
+        private long mRetryBaseDelayMillis = DEFAULT_RETRY_BASE_DELAY_MILLIS;
+        private long mRetryMaxDelayMillis = DEFAULT_RETRY_MAX_DELAY_MILLIS;
+        private File mJournalFile;
+        private File mCursorFile;
+        private int mThreadPriority = DEFAULT_THREAD_PRIORITY;
+        private boolean mAdaptivePoolSize;
+        private long mTargetQueueWaitMillis = DEFAULT_TARGET_QUEUE_WAIT_MILLIS;
+
+        public Builder setCorePoolSize(int corePoolSize) {
+            mCorePoolSize = corePoolSize;
+            return this;
+        }
+
+        /**
+         * @param maxPoolSize the maximum number of the threads. A run that overruns its deadline and ignores the interruption
+         *                    keeps its thread until it returns, so leave a reserve above the number of the authorities that may hang.
+         */
+        public Builder setMaxPoolSize(int maxPoolSize) {
+            mMaxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        public Builder setKeepAlive(long keepAlive, @Nonnull TimeUnit unit) {
+            mKeepAliveMillis = unit.toMillis(keepAlive);
+            return this;
+        }
+
+        /**
+         * @param queueCapacity capacity of the work queue, or {@link #UNBOUNDED_QUEUE} or {@link #DIRECT_HANDOFF}.
+         * @return this builder.
+         */
+        public Builder setQueueCapacity(int queueCapacity) {
+            mQueueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Each authority has its own ordered lane of the fallback runs, and only the head of each lane takes a slot of the pool queue.
+         * @param laneCapacity the maximum number of the runs waiting in the lane of an authority, or {@link #UNBOUNDED_QUEUE}.
+         * @return this builder.
+         */
+        public Builder setLaneCapacity(int laneCapacity) {
+            mLaneCapacity = laneCapacity;
+            return this;
+        }
+
+        /**
+         * The queued runs of an authority whose {@link com.eligor.FallbackRunnable} is a {@link com.eligor.BatchFallbackRunnable}
+         * are delivered together, up to this many at once.
+         * @param maxBatchSize the maximum number of the runs in a batch. 1 disables batching.
+         * @return this builder.
+         */
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            mMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder setRejectionPolicy(@Nonnull RejectionPolicy rejectionPolicy) {
+            mRejectionPolicy = rejectionPolicy;
+            return this;
+        }
+
+        /**
+         * A fallback run that throws {@link com.eligor.RetryableSyncException} is retried up to this many times in a row.
+         * @param maxRetries the maximum number of the retries of an authority, or {@link #NO_RETRY}.
+         * @return this builder.
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * The delay before the n-th retry of an authority is drawn at random from the upper half of min(baseDelay * 2^(n - 1), maxDelay).
+         * @param baseDelay the delay before the first retry.
+         * @param maxDelay the cap of the delay.
+         * @param unit the unit of the delays.
+         * @return this builder.
+         */
+        public Builder setRetryBackoff(long baseDelay, long maxDelay, @Nonnull TimeUnit unit) {
+            mRetryBaseDelayMillis = unit.toMillis(baseDelay);
+            mRetryMaxDelayMillis = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Persist the queued fallback runs to the journal file, so that they survive the death of the process.
+         * The runs left in the journal are recovered when {@link Eligor#initialize(int, FallbackExecutorConfig)} is called on the next launch,
+         * and performed when the {@link com.eligor.IPeriodicSyncManager} of their authority is registered.
+         * Note that the runs whose extras hold a value other than the ones the sync framework accepts are not persisted.
+         * @param journalFile the file in the private storage of the app, e.g. {@code new File(context.getFilesDir(), "eligor.journal")}, or null not to persist.
+         * @return this builder.
+         */
+        public Builder setJournalFile(@Nullable File journalFile) {
+            mJournalFile = journalFile;
+            return this;
+        }
+
+        /**
+         * Keep the incremental sync cursors in the file, and pass them to the {@link com.eligor.CursorFallbackRunnable}.
+         * See {@link com.eligor.SyncCursorStore}.
+         * @param cursorFile the file in the private storage of the app, e.g. {@code new File(context.getFilesDir(), SyncCursorStore.DEFAULT_FILE_NAME)}, or null not to keep.
+         * @return this builder.
+         */
+        public Builder setCursorFile(@Nullable File cursorFile) {
+            mCursorFile = cursorFile;
+            return this;
+        }
+
+        /**
+         * The fallback runs are background works, so their threads run at the background priority by default,
+         * not to steal the CPU from the UI thread.
+         * @param threadPriority the Linux priority of the threads, from {@link android.os.Process#THREAD_PRIORITY_URGENT_AUDIO}
+         *                       to {@link android.os.Process#THREAD_PRIORITY_LOWEST}.
+         * @return this builder.
+         */
+        public Builder setThreadPriority(int threadPriority) {
+            mThreadPriority = threadPriority;
+            return this;
+        }
+
+        /**
+         * Let the pool grow and shrink its core size between the core and the max pool size,
+         * so that the time the works wait in the queue stays around the target.
+         * @param adaptivePoolSize true to enable.
+         * @return this builder.
+         */
+        public Builder setAdaptivePoolSize(boolean adaptivePoolSize) {
+            mAdaptivePoolSize = adaptivePoolSize;
+            return this;
+        }
+
+        /**
+         * @param targetQueueWait the queue wait time that the adaptive pool keeps the works around.
+         * @param unit the unit of the time.
+         * @return this builder.
+         */
+        public Builder setTargetQueueWait(long targetQueueWait, @Nonnull TimeUnit unit) {
+            mTargetQueueWaitMillis = unit.toMillis(targetQueueWait);
+            return this;
+        }
+
+        /**
+         * @return the configuration.
+         * @throws java.lang.IllegalArgumentException if any of the values is out of range.
+         */
+        public FallbackExecutorConfig build() {
+            if (mCorePoolSize < 0 || mMaxPoolSize <= 0 || mMaxPoolSize < mCorePoolSize) {
+                throw new IllegalArgumentException("invalid pool size: core=" + mCorePoolSize + ", max=" + mMaxPoolSize);
+            }
+            if (mKeepAliveMillis < 0) {
+                throw new IllegalArgumentException("invalid keep alive: " + mKeepAliveMillis);
+            }
+            if (mQueueCapacity < 0) {
+                throw new IllegalArgumentException("invalid queue capacity: " + mQueueCapacity);
+            }
+            if (mLaneCapacity <= 0) {
+                throw new IllegalArgumentException("invalid lane capacity: " + mLaneCapacity);
+            }
+            if (mMaxBatchSize <= 0) {
+                throw new IllegalArgumentException("invalid max batch size: " + mMaxBatchSize);
+            }
+            if (mMaxRetries < 0) {
+                throw new IllegalArgumentException("invalid max retries: " + mMaxRetries);
+            }
+            if (mRetryBaseDelayMillis <= 0 || mRetryMaxDelayMillis < mRetryBaseDelayMillis) {
+                throw new IllegalArgumentException("invalid retry backoff: base=" + mRetryBaseDelayMillis + ", max=" + mRetryMaxDelayMillis);
+            }
+            if (mThreadPriority < Process.THREAD_PRIORITY_URGENT_AUDIO || mThreadPriority > Process.THREAD_PRIORITY_LOWEST) {
+                throw new IllegalArgumentException("invalid thread priority: " + mThreadPriority);
+            }
+            if (mTargetQueueWaitMillis <= 0) {
+                throw new IllegalArgumentException("invalid target queue wait: " + mTargetQueueWaitMillis);
+            }
+            return new FallbackExecutorConfig(this);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Append-only on-disk journal of the fallback runs waiting to be performed, so that they survive the death of the process.
+ * A run is appended when it is queued, and marked as done when it is finished or dropped.
+ * The runs left in the journal are replayed when the journal is opened on the next launch.
+ * Each record is framed with its length and CRC32, so a record torn by the death of the process is detected and ignored.
+ * The appends are buffered and written with a single fsync by a dedicated I/O thread, so the callers never wait for the disk,
+ * and a burst of the appends costs a few fsyncs. The file is compacted when the done records dominate it.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ class FallbackJournal {
+    public static final String TAG = FallbackJournal.class.getSimpleName();
+    /**
+     * The id of a run that is not in the journal.
+     */
+    public static final long NO_ID = 0L;
+    private static final int MAGIC = 0x454c4a31; // "ELJ1"
+    private static final byte TYPE_ADD = 1;
+    private static final byte TYPE_DONE = 2;
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+    private static final int COMPACTION_THRESHOLD = 256;
+    private final File mFile;
+    private final ExecutorService mIoExecutor;
+    private final Map<Long, byte[]> mLive; // the ADD records not done yet, in the order of the appends
+    private final Map<String, List<Entry>> mRecovered;
+    private ByteArrayOutputStream mPending;
+    private boolean mFlushScheduled;
+    private int mDeadCount; // records in the file that compaction would drop
+    private long mNextId;
+    private FileOutputStream mOut; // touched only on the I/O thread after open
+    private boolean mClosed;
+
+    private FallbackJournal(@Nonnull File file) {
+        mFile = file;
+        mLive = new LinkedHashMap<Long, byte[]>();
+        mRecovered = new HashMap<String, List<Entry>>();
+        mPending = new ByteArrayOutputStream();
+        mNextId = NO_ID + 1;
+        mIoExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Opens the journal, and reads the runs left by the previous process.
+     * The file is compacted to hold only the left runs.
+     * @param file the journal file, created if missing.
+     * @return the journal, or null if the file is not accessible.
+     */
+    public static @Nullable FallbackJournal open(@Nonnull File file) {
+        FallbackJournal journal = new FallbackJournal(file);
+        try {
+            journal.replay();
+            journal.rewrite();
+        } catch (IOException e) {
+            Log.e(TAG, "failed to open the fallback journal " + file + ". the fallback runs are not persisted.", e);
+            journal.mIoExecutor.shutdown();
+            return null;
+        }
+        return journal;
+    }
+
+    /**
+     * Records a queued run.
+     * @param authority the periodic sync manager is associated with.
+     * @param extras extra arguments of the run, may be null.
+     * @return the id of the record, or {@link #NO_ID} if the extras can't be persisted or the journal is closed.
+     */
+    public long append(@Nonnull String authority, @Nullable Bundle extras) {
+        if (!BundleCodec.isEncodable(extras)) {
+            Log.w(TAG, "the extras of " + authority + " hold a value that can't be persisted. the run won't survive the process.");
+            return NO_ID;
+        }
+        synchronized (this) {
+            if (mClosed) {
+                return NO_ID;
+            }
+            long id = mNextId++;
+            byte[] body;
+            try {
+                body = encodeAdd(id, authority, extras);
+            } catch (IOException e) {
+                throw new AssertionError(e); // never happens on the memory
+            }
+            mLive.put(id, body);
+            writeRecord(body);
+            return id;
+        }
+    }
+
+    /**
+     * Marks the run as done, so it won't be replayed.
+     * @param id the id of the record, or {@link #NO_ID} to do nothing.
+     */
+    public void complete(long id) {
+        if (id == NO_ID) {
+            return;
+        }
+        synchronized (this) {
+            if (mClosed || mLive.remove(id) == null) {
+                return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeByte(TYPE_DONE);
+                out.writeLong(id);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            mDeadCount += 2; // this one and its ADD
+            writeRecord(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Takes the runs of the authority left by the previous process. They stay in the journal until completed.
+     * @param authority the periodic sync manager is associated with.
+     * @return the left runs in the order they were queued, may be empty.
+     */
+    public synchronized @Nonnull List<Entry> takeRecovered(@Nonnull String authority) {
+        List<Entry> entries = mRecovered.remove(authority);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); ) {
+            if (!mLive.containsKey(iterator.next().getId())) {
+                iterator.remove(); // completed while waiting
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the number of the runs not done yet.
+     */
+    public synchronized int size() {
+        return mLive.size();
+    }
+
+    /**
+     * Writes all of the buffered records, and stops the I/O thread. The records appended after this are not persisted.
+     */
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                scheduleFlush();
+            }
+        }
+        mIoExecutor.shutdown();
+        try {
+            if (!mIoExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                Log.w(TAG, "timed out to flush the fallback journal.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRecord(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        DataOutputStream out = new DataOutputStream(mPending);
+        try {
+            out.writeInt(body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(body);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Writes the buffered records at once, or rewrites the whole file if it is worth compacting. Runs on the I/O thread.
+     */
+    private void flush() {
+        byte[] pending;
+        boolean compact;
+        synchronized (this) {
+            mFlushScheduled = false;
+            pending = mPending.toByteArray();
+            mPending = new ByteArrayOutputStream();
+            compact = mDeadCount > COMPACTION_THRESHOLD && mDeadCount > mLive.size() * 2;
+        }
+        if (mOut == null) {
+            return; // closed by the previous flush
+        }
+        try {
+            if (compact) {
+                rewrite(); // the live set already reflects the pending records
+            } else if (pending.length > 0) {
+                mOut.write(pending);
+                mOut.getFD().sync();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "failed to write the fallback journal.", e);
+        }
+        if (isLastFlush()) {
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+            }
+            mOut = null;
+        }
+    }
+
+    private synchronized boolean isLastFlush() {
+        return mClosed && !mFlushScheduled;
+    }
+
+    /**
+     * Reads the file, and collects the records not done yet. Stops at the first torn or corrupted record.
+     */
+    private void replay() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return; // nothing left
+        }
+        Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+        try {
+            if (in.readInt() != MAGIC) {
+                Log.w(TAG, mFile + " is not a fallback journal. it is overwritten.");
+                return;
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    Log.w(TAG, "corrupted record in the fallback journal. the rest is dropped.");
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    Log.w(TAG, "corrupted record in the fallback journal. the rest is dropped.");
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = record.readByte();
+                long id = record.readLong();
+                mNextId = Math.max(mNextId, id + 1);
+                if (type == TYPE_ADD) {
+                    String authority = record.readUTF();
+                    entries.put(id, new Entry(id, authority, BundleCodec.read(record)));
+                    mLive.put(id, body);
+                } else if (type == TYPE_DONE) {
+                    entries.remove(id);
+                    mLive.remove(id);
+                }
+            }
+        } catch (EOFException ignored) {
+            // the end of the file, or a record torn by the death of the process
+        } finally {
+            in.close();
+        }
+        for (Entry entry : entries.values()) {
+            List<Entry> list = mRecovered.get(entry.getAuthority());
+            if (list == null) {
+                list = new ArrayList<Entry>();
+                mRecovered.put(entry.getAuthority(), list);
+            }
+            list.add(entry);
+        }
+        if (!entries.isEmpty()) {
+            Log.i(TAG, entries.size() + " fallback run(s) recovered from the journal.");
+        }
+    }
+
+    /**
+     * Replaces the file with the one holding only the live records. The new file is written aside and renamed,
+     * so the journal is never lost half way.
+     */
+    private void rewrite() throws IOException {
+        List<byte[]> live;
+        synchronized (this) {
+            live = new ArrayList<byte[]>(mLive.values());
+            mDeadCount = 0;
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(MAGIC);
+            CRC32 crc = new CRC32();
+            for (byte[] body : live) {
+                crc.reset();
+                crc.update(body);
+                data.writeInt(body.length);
+                data.writeInt((int) crc.getValue());
+                data.write(body);
+            }
+            out.write(bytes.toByteArray());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("failed to replace " + mFile);
+        }
+        if (mOut != null) {
+            mOut.close();
+        }
+        mOut = new FileOutputStream(mFile, true);
+    }
+
+    private static byte[] encodeAdd(long id, String authority, Bundle extras) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_ADD);
+        out.writeLong(id);
+        out.writeUTF(authority);
+        BundleCodec.write(out, extras);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A run left by the previous process.
+     */
+    /* package */ static final class Entry {
+        private final long mId;
+        private final String mAuthority;
+        private final Bundle mExtras;
+
+        private Entry(long id, String authority, Bundle extras) {
+            mId = id;
+            mAuthority = authority;
+            mExtras = extras;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public @Nonnull String getAuthority() {
+            return mAuthority;
+        }
+
+        public @Nullable Bundle getExtras() {
+            return mExtras;
+        }
+    }
+}
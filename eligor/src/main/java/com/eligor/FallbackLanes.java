@@ -0,0 +1,379 @@
+package com.eligor;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Keyed serial execution of the fallback runs over the shared {@link com.eligor.FallbackRunnableExecutor}.
+ * Each authority has its own ordered lane, and a lane occupies at most one pool thread and one slot of the pool queue at a time,
+ * so the runs of an authority never overlap, and a slow authority never blocks the others behind it.
+ * A lane gives its thread back to the pool after each run, so the authorities take turns fairly.
+ * A run may have an execution deadline. A watchdog on {@link com.eligor.SyncTimer} cancels and interrupts the run that overruns it,
+ * and counts it as a timeout. The lane is still held by the overrunning run until it returns, so the runs of an authority never overlap,
+ * and the following runs wait for it. A run that ignores the interruption keeps its pool thread, so a few of them can occupy the whole pool;
+ * keep the maximum pool size above the number of the authorities that may hang.
+ * If the {@link com.eligor.FallbackRunnable} of the authority is a {@link com.eligor.BatchFallbackRunnable}, the queued runs are taken as a batch.
+ * If the pool evicts a lane from its queue to make room, the lane drops only its oldest run,
+ * and goes back to the pool queue as soon as a slot is free, so the backlog of an authority is never wiped out by the others.
+ * @since 1.3.0
+ */
+/* package */ class FallbackLanes {
+    public static final String TAG = FallbackLanes.class.getSimpleName();
+    public static final long NO_DEADLINE = 0L;
+    private final FallbackRunnableExecutor mExecutor;
+    private final SyncTimer mTimer;
+    private final int mLaneCapacity;
+    private final int mMaxBatchSize;
+    private final Map<String, Lane> mLanes;
+    private final LinkedList<Lane> mStarved; // guarded by mLanes, the lanes evicted from the pool queue with runs left
+    private final ConcurrentHashMap<String, Long> mDeadlines;
+    private final ConcurrentHashMap<String, AtomicInteger> mTimeouts;
+    private volatile long mDefaultDeadline = NO_DEADLINE;
+    private boolean mShutdown; // guarded by mLanes
+
+    public FallbackLanes(@Nonnull FallbackRunnableExecutor executor, @Nonnull SyncTimer timer, int laneCapacity, int maxBatchSize) {
+        mExecutor = executor;
+        mTimer = timer;
+        mLaneCapacity = laneCapacity;
+        mMaxBatchSize = maxBatchSize;
+        mLanes = new HashMap<String, Lane>();
+        mStarved = new LinkedList<Lane>();
+        mDeadlines = new ConcurrentHashMap<String, Long>();
+        mTimeouts = new ConcurrentHashMap<String, AtomicInteger>();
+    }
+
+    public void setDefaultDeadline(long deadlineMillis) {
+        mDefaultDeadline = deadlineMillis;
+    }
+
+    public void setDeadline(String authority, long deadlineMillis) {
+        mDeadlines.put(authority, deadlineMillis);
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the number of the runs of the authority that have overrun the deadline.
+     */
+    public int getTimeoutCount(String authority) {
+        AtomicInteger count = mTimeouts.get(authority);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of the runs of all authorities that have overrun the deadline.
+     */
+    public int getTimeoutCount() {
+        int total = 0;
+        for (AtomicInteger count : mTimeouts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Enqueue the run to the lane of its authority.
+     * @param dispatcher the run.
+     * @return true if accepted, false if the lane is full, the pool rejected the lane, or the lanes are shut down.
+     */
+    public boolean submit(@Nonnull FallbackSyncDispatcher dispatcher) {
+        String authority = dispatcher.getAuthority();
+        Lane lane;
+        synchronized (mLanes) {
+            if (mShutdown) {
+                return false;
+            }
+            lane = mLanes.get(authority);
+            if (lane == null) {
+                lane = new Lane(authority);
+                mLanes.put(authority, lane);
+            }
+            if (lane.mQueue.size() >= mLaneCapacity) {
+                return false;
+            }
+            lane.mQueue.add(dispatcher);
+            if (lane.mScheduled) {
+                return true;
+            }
+            lane.mScheduled = true;
+            mStarved.remove(lane);
+        }
+        if (mExecutor.process(lane)) {
+            return true;
+        }
+        synchronized (mLanes) {
+            lane.mQueue.remove(dispatcher);
+            lane.mScheduled = false;
+            retireIfIdle(lane);
+        }
+        return false;
+    }
+
+    /**
+     * Cancel all of the runs of the authority. The queued runs are dropped, and the running one is interrupted,
+     * so the pool thread is released as soon as the {@link com.eligor.FallbackRunnable} responds to the interruption.
+     * @param authority the periodic sync manager is associated with.
+     * @return the number of the runs cancelled, including the running one.
+     */
+    public int cancel(String authority) {
+        List<FallbackSyncDispatcher> queued;
+        int running = 0;
+        synchronized (mLanes) {
+            Lane lane = mLanes.get(authority);
+            if (lane == null) {
+                return 0;
+            }
+            queued = new ArrayList<FallbackSyncDispatcher>(lane.mQueue);
+            lane.mQueue.clear();
+            if (lane.mRunning != null) {
+                // mark it first, so that a failure caused by the interruption is not retried.
+                lane.mRunning.cancel();
+                lane.mRunningThread.interrupt();
+                running = 1;
+            }
+            // a scheduled lane finds its queue empty on its next turn, and retires by itself.
+            retireIfIdle(lane);
+        }
+        for (FallbackSyncDispatcher dispatcher : queued) {
+            dispatcher.cancel();
+        }
+        return queued.size() + running;
+    }
+
+    /**
+     * Stop accepting new runs. The running ones go on, and the lanes keep going on their threads even after the pool is shut down.
+     * @param handOver true to drop the queued runs that are in the {@link com.eligor.FallbackJournal} silently,
+     *                 since they are performed on the next launch, false to let all of them drain.
+     *                 The runs that are not journaled drain in either case.
+     * @return the number of the runs dropped.
+     */
+    public int shutdown(boolean handOver) {
+        int dropped = 0;
+        synchronized (mLanes) {
+            mShutdown = true;
+            if (handOver) {
+                for (Lane lane : mLanes.values()) {
+                    for (Iterator<FallbackSyncDispatcher> it = lane.mQueue.iterator(); it.hasNext(); ) {
+                        if (it.next().getJournalId() != FallbackJournal.NO_ID) {
+                            // a lane waiting in the pool queue takes the rest, or finds its queue empty and retires by itself.
+                            it.remove();
+                            dropped++;
+                        }
+                    }
+                }
+            }
+        }
+        // the evicted lanes left with runs get a slot while the pool still takes them.
+        resumeStarved();
+        return dropped;
+    }
+
+    /**
+     * Cancel all of the runs of all authorities, see {@link #cancel(String)}.
+     * @return the number of the runs cancelled.
+     */
+    public int cancelAll() {
+        List<String> authorities;
+        synchronized (mLanes) {
+            authorities = new ArrayList<String>(mLanes.keySet());
+        }
+        int cancelled = 0;
+        for (String authority : authorities) {
+            cancelled += cancel(authority);
+        }
+        return cancelled;
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the number of the runs waiting in the lane of the authority.
+     */
+    public int getQueuedCount(String authority) {
+        synchronized (mLanes) {
+            Lane lane = mLanes.get(authority);
+            return lane == null ? 0 : lane.mQueue.size();
+        }
+    }
+
+    private void retireIfIdle(Lane lane) {
+        if (!lane.mScheduled && lane.mQueue.isEmpty() && mLanes.get(lane.mAuthority) == lane) {
+            mLanes.remove(lane.mAuthority);
+            mStarved.remove(lane);
+        }
+    }
+
+    /**
+     * Put the evicted lanes back to the pool queue while it has room. Called when a lane leaves the pool queue.
+     */
+    private void resumeStarved() {
+        while (true) {
+            Lane lane;
+            synchronized (mLanes) {
+                lane = mStarved.poll();
+                if (lane == null) {
+                    return;
+                }
+                if (lane.mScheduled || lane.mQueue.isEmpty()) {
+                    retireIfIdle(lane);
+                    continue;
+                }
+                lane.mScheduled = true;
+            }
+            if (!mExecutor.process(lane)) {
+                synchronized (mLanes) {
+                    lane.mScheduled = false;
+                    mStarved.addFirst(lane);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ordered queue of the runs of an authority. Runs one of them at a time on the pool.
+     */
+    private final class Lane implements Runnable, FallbackRunnableExecutor.Discardable {
+        private final String mAuthority;
+        private final LinkedList<FallbackSyncDispatcher> mQueue;
+        private boolean mScheduled;
+        private FallbackSyncDispatcher mRunning;
+        private Thread mRunningThread;
+        private ScheduledFuture<?> mWatchdog;
+
+        private Lane(String authority) {
+            mAuthority = authority;
+            mQueue = new LinkedList<FallbackSyncDispatcher>();
+        }
+
+        @Override
+        public void run() {
+            // this lane has just left the pool queue; give the slot to an evicted one.
+            resumeStarved();
+            while (true) {
+                FallbackSyncDispatcher dispatcher;
+                boolean shutdown;
+                synchronized (mLanes) {
+                    dispatcher = mQueue.poll();
+                    if (dispatcher == null) {
+                        mScheduled = false;
+                        retireIfIdle(this);
+                        return;
+                    }
+                    while (dispatcher.getBatchSize() < mMaxBatchSize) {
+                        FallbackSyncDispatcher next = mQueue.peek();
+                        if (next == null || !dispatcher.absorb(next)) {
+                            break;
+                        }
+                        mQueue.poll();
+                    }
+                    mRunning = dispatcher;
+                    mRunningThread = Thread.currentThread();
+                    mWatchdog = startWatchdog(dispatcher);
+                }
+                try {
+                    dispatcher.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "fallback sync of " + mAuthority + " failed.", e);
+                }
+                synchronized (mLanes) {
+                    // the cancellation may have come too late to be noticed; don't leak it to the next run on this thread.
+                    Thread.interrupted();
+                    mRunning = null;
+                    mRunningThread = null;
+                    if (mWatchdog != null) {
+                        mWatchdog.cancel(false);
+                        mWatchdog = null;
+                    }
+                    if (mQueue.isEmpty()) {
+                        mScheduled = false;
+                        retireIfIdle(this);
+                        return;
+                    }
+                    shutdown = mShutdown;
+                }
+                // give the thread back to the pool so that the other lanes get their turn,
+                // or keep going on this thread if the pool has no room for us, or is draining.
+                if (!shutdown && mExecutor.process(this)) {
+                    return;
+                }
+            }
+        }
+
+        private ScheduledFuture<?> startWatchdog(final FallbackSyncDispatcher dispatcher) {
+            Long deadline = mDeadlines.get(mAuthority);
+            final long deadlineMillis = deadline != null ? deadline : mDefaultDeadline;
+            if (deadlineMillis <= NO_DEADLINE) {
+                return null;
+            }
+            try {
+                return mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDeadline(dispatcher, deadlineMillis);
+                    }
+                }, deadlineMillis);
+            } catch (RejectedExecutionException e) {
+                return null; // draining after the timer is shut down; the drain has its own timeout
+            }
+        }
+
+        private void onDeadline(FallbackSyncDispatcher dispatcher, long deadlineMillis) {
+            synchronized (mLanes) {
+                if (mRunning != dispatcher) {
+                    return; // finished in time
+                }
+                dispatcher.cancel();
+                mRunningThread.interrupt();
+                // the lane stays with the hung thread until it returns, so that the runs of the authority never overlap.
+                mWatchdog = null;
+            }
+            AtomicInteger count = mTimeouts.get(mAuthority);
+            if (count == null) {
+                AtomicInteger created = new AtomicInteger();
+                count = mTimeouts.putIfAbsent(mAuthority, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+            Log.w(TAG, "fallback sync of " + mAuthority + " has overrun the deadline of " + deadlineMillis + " ms, and is interrupted.");
+        }
+
+        /**
+         * Dropped from the pool queue by the rejection policy. Only the oldest run is discarded, and the lane waits for a free slot.
+         * The whole backlog is discarded if the pool is shut down.
+         */
+        @Override
+        public void discard() {
+            List<FallbackSyncDispatcher> discarded = new ArrayList<FallbackSyncDispatcher>();
+            synchronized (mLanes) {
+                mScheduled = false;
+                if (mShutdown) {
+                    discarded.addAll(mQueue);
+                    mQueue.clear();
+                } else if (!mQueue.isEmpty()) {
+                    discarded.add(mQueue.poll());
+                }
+                if (mQueue.isEmpty()) {
+                    retireIfIdle(this);
+                } else if (!mStarved.contains(this)) {
+                    mStarved.add(this);
+                }
+            }
+            for (FallbackSyncDispatcher dispatcher : discarded) {
+                dispatcher.discard();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Outcome of a fallback run, returned from {@link com.eligor.ResultFallbackRunnable#onPerformSyncForResult(android.os.Bundle)}.
+ * Eligor learns from the results whether the syncs of the authority keep finding changes or not,
+ * and adapts the sync period of the authority, see {@link Eligor#setAdaptiveSyncPeriod(int, int)}.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class FallbackResult {
+    /**
+     * Value of the measures that the run didn't report.
+     */
+    public static final long UNKNOWN = -1L;
+
+    /**
+     * How the run has failed.
+     */
+    public enum ErrorClass {
+        /**
+         * The run has succeeded.
+         */
+        NONE,
+        /**
+         * The run has failed for a reason that may go away, e.g. a network error. The run is retried with backoff,
+         * the same as {@link com.eligor.RetryableSyncException}.
+         */
+        TRANSIENT,
+        /**
+         * The run has failed for a reason that won't go away by retrying, e.g. an authentication error.
+         */
+        PERMANENT
+    }
+
+    private final long mItemsChanged;
+    private final long mBytesTransferred;
+    private final long mDurationMillis;
+    private final ErrorClass mErrorClass;
+
+    private FallbackResult(long itemsChanged, long bytesTransferred, long durationMillis, ErrorClass errorClass) {
+        mItemsChanged = itemsChanged;
+        mBytesTransferred = bytesTransferred;
+        mDurationMillis = durationMillis;
+        mErrorClass = errorClass;
+    }
+
+    /**
+     * @return the number of the items added, updated or deleted by the run, or {@link #UNKNOWN}.
+     */
+    public long getItemsChanged() {
+        return mItemsChanged;
+    }
+
+    /**
+     * @return the bytes sent and received by the run, or {@link #UNKNOWN}.
+     */
+    public long getBytesTransferred() {
+        return mBytesTransferred;
+    }
+
+    /**
+     * @return the time the run took. Measured by Eligor unless the run has reported it.
+     */
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    public @Nonnull ErrorClass getErrorClass() {
+        return mErrorClass;
+    }
+
+    /**
+     * @return true if the run has succeeded and found nothing to change.
+     */
+    public boolean isEmpty() {
+        return mErrorClass == ErrorClass.NONE && mItemsChanged == 0;
+    }
+
+    /* package */ FallbackResult withMeasuredDuration(long durationMillis) {
+        if (mDurationMillis != UNKNOWN) {
+            return this;
+        }
+        return new FallbackResult(mItemsChanged, mBytesTransferred, durationMillis, mErrorClass);
+    }
+
+    @Override
+    public String toString() {
+        return "FallbackResult{itemsChanged=" + mItemsChanged + ", bytesTransferred=" + mBytesTransferred
+                + ", durationMillis=" + mDurationMillis + ", errorClass=" + mErrorClass + "}";
+    }
+
+    /**
+     * Builder of the {@link com.eligor.FallbackResult}. The measures not set are {@link #UNKNOWN}.
+     */
+    public static final class Builder {
+        private long mItemsChanged = UNKNOWN;
+        private long mBytesTransferred = UNKNOWN;
+        private long mDurationMillis = UNKNOWN;
+        private ErrorClass mErrorClass = ErrorClass.NONE;
+
+        public Builder setItemsChanged(long itemsChanged) {
+            mItemsChanged = itemsChanged;
+            return this;
+        }
+
+        public Builder setBytesTransferred(long bytesTransferred) {
+            mBytesTransferred = bytesTransferred;
+            return this;
+        }
+
+        public Builder setDurationMillis(long durationMillis) {
+            mDurationMillis = durationMillis;
+            return this;
+        }
+
+        public Builder setErrorClass(@Nonnull ErrorClass errorClass) {
+            mErrorClass = errorClass;
+            return this;
+        }
+
+        public FallbackResult build() {
+            return new FallbackResult(mItemsChanged, mBytesTransferred, mDurationMillis, mErrorClass);
+        }
+    }
+}
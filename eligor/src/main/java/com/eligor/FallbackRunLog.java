@@ -0,0 +1,25 @@
+package com.eligor;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers when the fallback sync of each authority has run for the last time.
+ * @since 1.3.0
+ */
+/* package */ class FallbackRunLog {
+    public static final long NEVER = 0L;
+    private final ConcurrentHashMap<String, Long> mLastRuns = new ConcurrentHashMap<String, Long>();
+
+    public void recordRun(String authority, long timeMillis) {
+        mLastRuns.put(authority, timeMillis);
+    }
+
+    public long getLastRun(String authority) {
+        Long lastRun = mLastRuns.get(authority);
+        return lastRun == null ? NEVER : lastRun;
+    }
+
+    public void remove(String authority) {
+        mLastRuns.remove(authority);
+    }
+}
@@ -9,5 +9,10 @@ import javax.annotation.Nullable;
  * @since 2014/05/19
  */
 public interface FallbackRunnable {
+    /**
+     * Perform the sync by yourself, since the master sync is disabled.
+     * Throw {@link com.eligor.RetryableSyncException} to have the run retried later.
+     * @param extras extra arguments of the sync request, may be null.
+     */
     public void onPerformSync(@Nullable Bundle extras);
 }
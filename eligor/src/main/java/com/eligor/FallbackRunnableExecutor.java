@@ -1,35 +1,246 @@
 package com.eligor;
 
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nonnull;
+
 /**
  * @author keishin.yokomaku
  * @since 2014/05/19
  */
 /* package */ class FallbackRunnableExecutor {
     public static final String TAG = FallbackRunnableExecutor.class.getSimpleName();
-    private static final int CORE_THREAD_POOL_SIZE = 3;
-    private static final int MAX_THREAD_POOL_SIZE = 64;
-    private static final int KEEP_ALIVE = 1;
-    private static final int POOL_WORK_QUEUE_CAPACITY = 10;
-    private static final BlockingQueue<Runnable> sWorkQueue = new LinkedBlockingQueue<Runnable>(POOL_WORK_QUEUE_CAPACITY);
-    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
-        private final AtomicInteger mCount = new AtomicInteger(1);
+    private static final long ADJUST_INTERVAL_MILLIS = 500L;
+    private static final AtomicInteger sThreadCount = new AtomicInteger(1);
+    private final ThreadPoolExecutor mThreadPoolExecutor;
+    private final boolean mAdaptive;
+    private final int mMinCorePoolSize;
+    private final int mMaxCorePoolSize;
+    private final long mTargetQueueWaitMillis;
+    private final Object mWaitLock = new Object();
+    private long mAverageQueueWaitMillis; // exponentially weighted, guarded by mWaitLock
+    private long mLastAdjustedAt; // guarded by mWaitLock
+
+    public FallbackRunnableExecutor(@Nonnull FallbackExecutorConfig config) {
+        mThreadPoolExecutor = new ThreadPoolExecutor(
+                config.getCorePoolSize(), config.getMaxPoolSize(), config.getKeepAliveMillis(), TimeUnit.MILLISECONDS,
+                createWorkQueue(config.getQueueCapacity()), createThreadFactory(config.getThreadPriority()),
+                createRejectionHandler(config.getRejectionPolicy()));
+        mAdaptive = config.isAdaptivePoolSize();
+        mMinCorePoolSize = Math.max(1, config.getCorePoolSize());
+        mMaxCorePoolSize = config.getMaxPoolSize();
+        mTargetQueueWaitMillis = config.getTargetQueueWaitMillis();
+    }
+
+    /**
+     * Submit the runnable to the pool.
+     * @param runnable the work to run.
+     * @return true if accepted, false if rejected because the pool is saturated or shut down.
+     */
+    public boolean process(Runnable runnable) {
+        try {
+            mThreadPoolExecutor.execute(new QueuedWork(runnable));
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "fallback sync is rejected: pool=" + mThreadPoolExecutor.getPoolSize()
+                    + ", queued=" + mThreadPoolExecutor.getQueue().size());
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting new works. The works already accepted still run.
+     */
+    public void shutdown() {
+        mThreadPoolExecutor.shutdown();
+    }
+
+    /**
+     * Stop accepting new works, drop the queued ones, and interrupt the running ones.
+     */
+    public void shutdownNow() {
+        for (Runnable dropped : mThreadPoolExecutor.shutdownNow()) {
+            if (dropped instanceof Discardable) {
+                ((Discardable) dropped).discard();
+            }
+        }
+    }
+
+    /**
+     * Wait for all of the works to finish after {@link #shutdown()}.
+     * @param timeoutMillis the maximum time to wait.
+     * @return true if terminated, false if timed out.
+     * @throws java.lang.InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return mThreadPoolExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of the threads in the pool.
+     */
+    public int getPoolSize() {
+        return mThreadPoolExecutor.getPoolSize();
+    }
+
+    /**
+     * @return the current core size of the pool, that the adaptive pool changes.
+     */
+    public int getCorePoolSize() {
+        return mThreadPoolExecutor.getCorePoolSize();
+    }
+
+    /**
+     * @return the recent time the works wait in the queue, weighted toward the latest ones.
+     */
+    public long getAverageQueueWaitMillis() {
+        synchronized (mWaitLock) {
+            return mAverageQueueWaitMillis;
+        }
+    }
+
+    /**
+     * Take the queue wait time of a work into the average, and resize the pool if the average is off the target.
+     * The pool grows a thread at a time while the works wait longer than the target,
+     * and shrinks a thread at a time while they wait much shorter, at most once in {@link #ADJUST_INTERVAL_MILLIS}.
+     */
+    private void onDequeued(long waitMillis) {
+        int delta = 0;
+        synchronized (mWaitLock) {
+            mAverageQueueWaitMillis += (waitMillis - mAverageQueueWaitMillis) / 4;
+            if (!mAdaptive) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (now - mLastAdjustedAt < ADJUST_INTERVAL_MILLIS) {
+                return;
+            }
+            int core = mThreadPoolExecutor.getCorePoolSize();
+            if (mAverageQueueWaitMillis > mTargetQueueWaitMillis && core < mMaxCorePoolSize) {
+                delta = 1;
+            } else if (mAverageQueueWaitMillis < mTargetQueueWaitMillis / 4 && core > mMinCorePoolSize
+                    && mThreadPoolExecutor.getQueue().isEmpty()) {
+                delta = -1;
+            }
+            if (delta == 0) {
+                return;
+            }
+            mLastAdjustedAt = now;
+            mThreadPoolExecutor.setCorePoolSize(core + delta);
+        }
+        Log.d(TAG, "fallback pool " + (delta > 0 ? "grows" : "shrinks") + " to " + mThreadPoolExecutor.getCorePoolSize()
+                + " threads: queue wait=" + getAverageQueueWaitMillis() + " ms");
+    }
+
+    private static ThreadFactory createThreadFactory(final int priority) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new WorkerThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(priority);
+                        r.run();
+                    }
+                }, TAG + " #" + sThreadCount.getAndIncrement());
+            }
+        };
+    }
+
+    private static BlockingQueue<Runnable> createWorkQueue(int capacity) {
+        if (capacity == FallbackExecutorConfig.DIRECT_HANDOFF) {
+            return new SynchronousQueue<Runnable>();
+        }
+        return new LinkedBlockingQueue<Runnable>(capacity);
+    }
+
+    private static RejectedExecutionHandler createRejectionHandler(FallbackExecutorConfig.RejectionPolicy policy) {
+        switch (policy) {
+            case CALLER_RUNS:
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // a worker resubmitting its own work would just nest the run on its stack; let it continue in its loop instead.
+                        // the timer thread must not run a sync either, since it would hold up all of the timers.
+                        Thread current = Thread.currentThread();
+                        if (executor.isShutdown() || current instanceof WorkerThread || current instanceof SyncTimer.TimerThread) {
+                            throw new RejectedExecutionException();
+                        }
+                        r.run();
+                    }
+                };
+            case DISCARD_OLDEST:
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // a worker resubmitting its own work continues in its loop instead, so it never evicts the works of the others.
+                        if (Thread.currentThread() instanceof WorkerThread) {
+                            throw new RejectedExecutionException();
+                        }
+                        Runnable oldest = executor.isShutdown() ? null : executor.getQueue().poll();
+                        if (oldest == null) {
+                            throw new RejectedExecutionException();
+                        }
+                        if (oldest instanceof Discardable) {
+                            ((Discardable) oldest).discard();
+                        }
+                        executor.execute(r);
+                    }
+                };
+            case REJECT:
+            default:
+                return new ThreadPoolExecutor.AbortPolicy();
+        }
+    }
+
+    /**
+     * A work in the pool queue, stamped with the time it is queued.
+     */
+    private final class QueuedWork implements Runnable, Discardable {
+        private final Runnable mWork;
+        private final long mQueuedAt;
+
+        private QueuedWork(Runnable work) {
+            mWork = work;
+            mQueuedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void run() {
+            onDequeued(SystemClock.elapsedRealtime() - mQueuedAt);
+            mWork.run();
+        }
+
         @Override
-        public Thread newThread(Runnable r) {
-            return new Thread(r, TAG + " #" + mCount.getAndIncrement());
+        public void discard() {
+            if (mWork instanceof Discardable) {
+                ((Discardable) mWork).discard();
+            }
         }
-    };
-    private static final Executor sThreadPoolExecutor = new ThreadPoolExecutor(
-            CORE_THREAD_POOL_SIZE, MAX_THREAD_POOL_SIZE, KEEP_ALIVE, TimeUnit.SECONDS, sWorkQueue, sThreadFactory);
+    }
 
-    public static void process(Runnable runnable) {
-        sThreadPoolExecutor.execute(runnable);
+    /**
+     * A work that should be notified when it is dropped from the queue without running.
+     */
+    /* package */ interface Discardable {
+        public void discard();
+    }
+
+    private static final class WorkerThread extends Thread {
+        private WorkerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
     }
 }
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Runs the {@link com.eligor.FallbackRunnable} of each authority on its applied sync period while the master sync is disabled,
+ * since the periodic syncs registered to the framework never fire in that case.
+ * The schedules are kept in a {@link com.eligor.TimingWheel}, so arming, replacing and cancelling a schedule are O(1)
+ * no matter how many authorities are registered. The wheel is driven by a single task on the one thread of {@link com.eligor.SyncTimer},
+ * which sleeps until the wheel has something to do.
+ * The schedules are armed when the master sync is turned off, and disarmed as soon as it is turned back on.
+ * The schedule of an authority whose sync is disabled is kept disarmed, and armed again when the sync is enabled.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class FallbackScheduler implements MasterSyncState.Listener {
+    public static final String TAG = FallbackScheduler.class.getSimpleName();
+    public static final long DEFAULT_TICK_MILLIS = 1000L;
+    private final SyncTimer mTimer;
+    private final MasterSyncState mMasterSyncState;
+    private final FallbackRunLog mRunLog;
+    private final Dispatcher mDispatcher;
+    private final Map<String, Schedule> mSchedules;
+    private final Set<String> mDisabled; // guarded by mSchedules
+    private final TimingWheel mWheel; // guarded by mSchedules
+    private final Runnable mTicker;
+    private ScheduledFuture<?> mTickerFuture; // guarded by mSchedules
+    private long mTickerWakeMillis; // guarded by mSchedules
+    private boolean mRunning; // guarded by mSchedules
+    private boolean mListening; // guarded by mSchedules
+    private boolean mReleased; // guarded by mSchedules
+
+    /* package */ FallbackScheduler(@Nonnull SyncTimer timer, @Nonnull MasterSyncState masterSyncState,
+                                   @Nonnull FallbackRunLog runLog, @Nonnull Dispatcher dispatcher) {
+        mTimer = timer;
+        mMasterSyncState = masterSyncState;
+        mRunLog = runLog;
+        mDispatcher = dispatcher;
+        mSchedules = new HashMap<String, Schedule>();
+        mDisabled = new HashSet<String>();
+        mWheel = new TimingWheel(DEFAULT_TICK_MILLIS, SystemClock.elapsedRealtime());
+        mTicker = new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        };
+    }
+
+    /**
+     * Set the period of the fallback runs of the manager, replacing the previous one.
+     * The first run comes one period after the last fallback run of the authority, or one period from now if it has never run.
+     * Setting the same period and extra arguments again keeps the current schedule as is.
+     * @param manager the manager to run.
+     * @param period the period in seconds. 0 or less cancels the schedule.
+     * @param args extra arguments passed to the fallback runs.
+     */
+    public void schedule(@Nonnull IPeriodicSyncManager manager, int period, @Nullable Bundle args) {
+        String authority = manager.getAuthority();
+        if (period <= 0) {
+            cancel(authority);
+            return;
+        }
+        long periodMillis = period * 1000L;
+        boolean masterSyncEnabled = mMasterSyncState.isEnabled();
+        synchronized (mSchedules) {
+            if (mReleased) {
+                return;
+            }
+            if (!mListening) {
+                mMasterSyncState.addListener(this);
+                mListening = true;
+            }
+            Schedule previous = mSchedules.get(authority);
+            if (previous == null || !previous.isSame(manager, periodMillis, args)) {
+                if (previous != null) {
+                    previous.disarm();
+                }
+                Schedule schedule = new Schedule(manager, periodMillis, args != null ? new Bundle(args) : null);
+                mSchedules.put(authority, schedule);
+                if (mRunning) {
+                    schedule.arm();
+                }
+            }
+            setRunning(!masterSyncEnabled);
+            updateTicker();
+        }
+    }
+
+    /**
+     * Follow the sync period that the manager has just been requested to apply.
+     * The manager may have refused the request, e.g. because its sync is disabled,
+     * so the schedule is replaced only if the period reported by the manager is the requested one.
+     * The managers not derived from {@link com.eligor.AbstractPeriodicSyncManager} don't report it, and the request is followed as is.
+     * @param manager the manager that has been requested to apply the period.
+     * @param period the requested period in seconds.
+     * @param args extra arguments of the request.
+     * @param enabled true if the sync of the authority is enabled, false to keep the schedule disarmed.
+     */
+    public void onSyncPeriodApplied(@Nonnull IPeriodicSyncManager manager, int period, @Nullable Bundle args, boolean enabled) {
+        setEnabled(manager.getAuthority(), enabled);
+        if (manager instanceof AbstractPeriodicSyncManager && ((AbstractPeriodicSyncManager) manager).getSyncPeriod() != period) {
+            Log.d(TAG, "sync period of " + manager.getAuthority() + " has not been applied. the fallback schedule is left as is.");
+            return;
+        }
+        schedule(manager, period, args);
+    }
+
+    /**
+     * Disarm the schedule of the authority while its sync is disabled, and arm it again when enabled.
+     * The schedule itself is kept, so it resumes with the same period and extra arguments.
+     * @param authority the periodic sync manager is associated with.
+     * @param enabled true if the sync of the authority is enabled, false otherwise.
+     */
+    public void setEnabled(String authority, boolean enabled) {
+        synchronized (mSchedules) {
+            if (mReleased || !(enabled ? mDisabled.remove(authority) : mDisabled.add(authority))) {
+                return;
+            }
+            Schedule schedule = mSchedules.get(authority);
+            if (schedule == null) {
+                return;
+            }
+            if (!enabled) {
+                schedule.disarm();
+            } else if (mRunning) {
+                schedule.arm();
+            }
+            updateTicker();
+        }
+    }
+
+    /**
+     * Drop the schedule of the authority, if any. A run already handed to the executor is not affected.
+     * @param authority the periodic sync manager is associated with.
+     */
+    public void cancel(String authority) {
+        synchronized (mSchedules) {
+            mDisabled.remove(authority);
+            Schedule schedule = mSchedules.remove(authority);
+            if (schedule != null) {
+                schedule.disarm();
+                updateTicker();
+            }
+        }
+    }
+
+    /**
+     * @return true if the schedules are armed, i.e. the master sync is disabled.
+     */
+    public boolean isRunning() {
+        synchronized (mSchedules) {
+            return mRunning;
+        }
+    }
+
+    /**
+     * Drop all of the schedules and stop listening to the master sync setting.
+     */
+    public void release() {
+        synchronized (mSchedules) {
+            mReleased = true;
+            setRunning(false);
+            updateTicker();
+            mSchedules.clear();
+            mDisabled.clear();
+            if (mListening) {
+                mMasterSyncState.removeListener(this);
+                mListening = false;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMasterSyncChanged(boolean enabled) {
+        synchronized (mSchedules) {
+            if (!mReleased) {
+                setRunning(!enabled);
+                updateTicker();
+            }
+        }
+    }
+
+    private void setRunning(boolean running) {
+        if (mRunning == running) {
+            return;
+        }
+        mRunning = running;
+        Log.d(TAG, running ? "master sync is disabled. starting fallback schedules." : "master sync is enabled. stopping fallback schedules.");
+        for (Schedule schedule : mSchedules.values()) {
+            if (running) {
+                schedule.arm();
+            } else {
+                schedule.disarm();
+            }
+        }
+    }
+
+    /**
+     * Make sure the ticker wakes up when the wheel has something to do next, and not more often.
+     */
+    private void updateTicker() {
+        long wake = mWheel.nextWakeMillis();
+        if (wake == Long.MAX_VALUE) {
+            if (mTickerFuture != null) {
+                mTickerFuture.cancel(false);
+                mTickerFuture = null;
+            }
+            return;
+        }
+        if (mTickerFuture != null) {
+            if (mTickerWakeMillis <= wake) {
+                return; // wakes up early enough, and looks at the wheel again then
+            }
+            mTickerFuture.cancel(false);
+        }
+        mTickerWakeMillis = wake;
+        mTickerFuture = mTimer.schedule(mTicker, Math.max(0L, wake - SystemClock.elapsedRealtime()));
+    }
+
+    private void tick() {
+        List<Runnable> expired;
+        synchronized (mSchedules) {
+            mTickerFuture = null;
+            expired = mWheel.advance(SystemClock.elapsedRealtime());
+            updateTicker();
+        }
+        for (Runnable schedule : expired) {
+            schedule.run();
+        }
+    }
+
+    /**
+     * Dispatches the scheduled fallback run.
+     */
+    /* package */ interface Dispatcher {
+        public void dispatch(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle args);
+    }
+
+    private final class Schedule implements Runnable {
+        private final IPeriodicSyncManager mManager;
+        private final long mPeriodMillis;
+        private final Bundle mArgs;
+        private TimingWheel.Timeout mTimeout; // guarded by mSchedules
+
+        private Schedule(IPeriodicSyncManager manager, long periodMillis, Bundle args) {
+            mManager = manager;
+            mPeriodMillis = periodMillis;
+            mArgs = args;
+        }
+
+        private boolean isSame(IPeriodicSyncManager manager, long periodMillis, Bundle args) {
+            return mManager == manager && mPeriodMillis == periodMillis && Bundles.equals(mArgs, args);
+        }
+
+        private void arm() {
+            if (mTimeout != null || mDisabled.contains(mManager.getAuthority())) {
+                return;
+            }
+            long lastRun = mRunLog.getLastRun(mManager.getAuthority());
+            long delay = lastRun == FallbackRunLog.NEVER ? mPeriodMillis
+                    : Math.max(0L, lastRun + mPeriodMillis - System.currentTimeMillis());
+            mTimeout = mWheel.add(this, SystemClock.elapsedRealtime() + delay);
+        }
+
+        private void disarm() {
+            if (mTimeout != null) {
+                mWheel.cancel(mTimeout);
+                mTimeout = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (mSchedules) {
+                if (mSchedules.get(mManager.getAuthority()) != this || !mRunning || mDisabled.contains(mManager.getAuthority())) {
+                    return; // replaced, stopped or disabled
+                }
+                mTimeout = null;
+            }
+            if (mMasterSyncState.isEnabled()) {
+                // the notification is on its way, but don't wait for it.
+                onMasterSyncChanged(true);
+                return;
+            }
+            mDispatcher.dispatch(mManager, mArgs);
+            synchronized (mSchedules) {
+                if (mSchedules.get(mManager.getAuthority()) == this && mRunning && mTimeout == null
+                        && !mDisabled.contains(mManager.getAuthority())) {
+                    mTimeout = mWheel.add(this, SystemClock.elapsedRealtime() + mPeriodMillis);
+                    updateTicker();
+                }
+            }
+        }
+    }
+}
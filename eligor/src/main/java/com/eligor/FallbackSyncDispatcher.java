@@ -1,6 +1,11 @@
 package com.eligor;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -9,17 +14,183 @@ import javax.annotation.Nullable;
  * @author keishin.yokomaku
  * @since 2014/05/19
  */
-/* package */ class FallbackSyncDispatcher implements Runnable {
+/* package */ class FallbackSyncDispatcher implements Runnable, FallbackRunnableExecutor.Discardable {
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_DROPPED = 2;
     private final IPeriodicSyncManager mManager;
     private final Bundle mExtras;
+    private final long mJournalId;
+    private final SyncCursorStore mCursorStore;
+    private final Listener mListener;
+    private final AtomicInteger mState;
+    private volatile boolean mCancelled;
+    private List<FallbackSyncDispatcher> mFollowers; // the other runs delivered in the same batch
+
+    public FallbackSyncDispatcher(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, @Nonnull Listener listener) {
+        this(manager, extras, FallbackJournal.NO_ID, listener);
+    }
 
-    public FallbackSyncDispatcher(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras) {
+    /**
+     * @param manager the manager to run.
+     * @param extras extra arguments of the run, may be null.
+     * @param journalId the id of the run in the {@link com.eligor.FallbackJournal}, or {@link FallbackJournal#NO_ID}.
+     * @param listener the listener of the lifecycle.
+     */
+    public FallbackSyncDispatcher(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId, @Nonnull Listener listener) {
+        this(manager, extras, journalId, null, listener);
+    }
+
+    /**
+     * @param manager the manager to run.
+     * @param extras extra arguments of the run, may be null.
+     * @param journalId the id of the run in the {@link com.eligor.FallbackJournal}, or {@link FallbackJournal#NO_ID}.
+     * @param cursorStore the store of the cursors for the {@link com.eligor.CursorFallbackRunnable}, may be null.
+     * @param listener the listener of the lifecycle.
+     */
+    public FallbackSyncDispatcher(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId,
+                                  @Nullable SyncCursorStore cursorStore, @Nonnull Listener listener) {
         mManager = manager;
         mExtras = extras;
+        mJournalId = journalId;
+        mCursorStore = cursorStore;
+        mListener = listener;
+        mState = new AtomicInteger(STATE_QUEUED);
+    }
+
+    public @Nonnull String getAuthority() {
+        return mManager.getAuthority();
+    }
+
+    /**
+     * @return the id of the run in the {@link com.eligor.FallbackJournal}, or {@link FallbackJournal#NO_ID} if not journaled.
+     */
+    public long getJournalId() {
+        return mJournalId;
+    }
+
+    /**
+     * Take a queued run into the batch of this run, if the {@link com.eligor.FallbackRunnable} is a {@link com.eligor.BatchFallbackRunnable}.
+     * Must be called before this run starts.
+     * @param other the run queued after this one.
+     * @return true if taken, false if the run should be run by itself.
+     */
+    public boolean absorb(@Nonnull FallbackSyncDispatcher other) {
+        if (other.mManager != mManager || !(mManager.getFallbackRunnable() instanceof BatchFallbackRunnable)) {
+            return false;
+        }
+        if (!other.mState.compareAndSet(STATE_QUEUED, STATE_RUNNING)) {
+            return false;
+        }
+        if (mFollowers == null) {
+            mFollowers = new ArrayList<FallbackSyncDispatcher>();
+        }
+        mFollowers.add(other);
+        return true;
+    }
+
+    /**
+     * @return the number of the runs delivered together with this run, including this one.
+     */
+    public int getBatchSize() {
+        return mFollowers == null ? 1 : mFollowers.size() + 1;
     }
 
     @Override
     public void run() {
-        mManager.getFallbackRunnable().onPerformSync(mExtras);
+        if (!mState.compareAndSet(STATE_QUEUED, STATE_RUNNING)) {
+            return; // dropped while waiting
+        }
+        List<Bundle> extrasList = new ArrayList<Bundle>(getBatchSize());
+        extrasList.add(mExtras);
+        if (mFollowers != null) {
+            for (FallbackSyncDispatcher follower : mFollowers) {
+                extrasList.add(follower.mExtras);
+            }
+        }
+        for (Bundle extras : extrasList) {
+            mListener.onFallbackStart(mManager, extras);
+        }
+        boolean succeeded = false;
+        try {
+            FallbackRunnable runnable = mManager.getFallbackRunnable();
+            if (mFollowers != null) {
+                ((BatchFallbackRunnable) runnable).onPerformSyncBatch(extrasList);
+                succeeded = true;
+            } else if (runnable instanceof ResultFallbackRunnable) {
+                succeeded = performForResult((ResultFallbackRunnable) runnable);
+            } else if (runnable instanceof CursorFallbackRunnable && mCursorStore != null) {
+                ((CursorFallbackRunnable) runnable).onPerformSync(mExtras, mCursorStore.getCursor(mManager.getAuthority()));
+                succeeded = true;
+            } else {
+                runnable.onPerformSync(mExtras);
+                succeeded = true;
+            }
+        } catch (RetryableSyncException e) {
+            if (!mCancelled) {
+                mListener.onFallbackRetry(mManager, extrasList, e);
+            }
+        } finally {
+            mListener.onFallbackFinish(mManager, mExtras, mJournalId, succeeded);
+            if (mFollowers != null) {
+                for (FallbackSyncDispatcher follower : mFollowers) {
+                    mListener.onFallbackFinish(mManager, follower.mExtras, follower.mJournalId, succeeded);
+                }
+            }
+        }
+    }
+
+    private boolean performForResult(ResultFallbackRunnable runnable) {
+        long start = SystemClock.elapsedRealtime();
+        FallbackResult result = runnable.onPerformSyncForResult(mExtras).withMeasuredDuration(SystemClock.elapsedRealtime() - start);
+        mListener.onFallbackResult(mManager, result);
+        switch (result.getErrorClass()) {
+            case NONE:
+                return true;
+            case TRANSIENT:
+                throw new RetryableSyncException("transient error reported: " + result);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Notifies the run is dropped from the queue without running.
+     */
+    @Override
+    public void discard() {
+        if (mState.compareAndSet(STATE_QUEUED, STATE_DROPPED)) {
+            mListener.onFallbackDiscard(mManager, mExtras, mJournalId);
+        }
+    }
+
+    /**
+     * Cancel the run. A queued run never starts, and a running run won't be retried even if it fails.
+     * Interrupting the running thread is up to the caller.
+     */
+    public void cancel() {
+        mCancelled = true;
+        if (mState.compareAndSet(STATE_QUEUED, STATE_DROPPED)) {
+            mListener.onFallbackCancel(mManager, mExtras, mJournalId);
+        }
+    }
+
+    /**
+     * Observes the lifecycle of the fallback runs.
+     * The journal id is the one given to the constructor, so the record is completed when the run is over.
+     * A retry is notified before the finish, so the listener can persist the retry before the record is completed.
+     */
+    /* package */ interface Listener {
+        public void onFallbackStart(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras);
+
+        public void onFallbackFinish(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId, boolean succeeded);
+
+        public void onFallbackResult(@Nonnull IPeriodicSyncManager manager, @Nonnull FallbackResult result);
+
+        public void onFallbackRetry(@Nonnull IPeriodicSyncManager manager, @Nonnull List<Bundle> extrasList, @Nonnull RetryableSyncException e);
+
+        public void onFallbackDiscard(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId);
+
+        public void onFallbackCancel(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle extras, long journalId);
     }
 }
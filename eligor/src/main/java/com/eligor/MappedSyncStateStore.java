@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link com.eligor.SyncStateStore} that keeps the states of all authorities in a single compact binary file.
+ * Opt in by passing it to {@link com.eligor.PreferencedPeriodicSyncManager}; the legacy constructors keep using the preferences,
+ * which can be moved into this store by {@link com.eligor.SyncStateMigrator}.
+ * The file is memory-mapped and made of fixed-size records, one per authority, so opening the store costs a single file read
+ * instead of a file read and an XML parse per authority, and updating a state rewrites only its record.
+ * A record holds the extra arguments as well, in the encoding of {@link com.eligor.BundleCodec}.
+ * If a state doesn't fit in the record, the file is rewritten with larger records; the extra arguments larger than
+ * {@link #MAX_RECORD_SIZE} are not kept, and only their fingerprint is.
+ * The records are written to the shared mapping, so they survive the death of the process as soon as they are put;
+ * call {@link #flush()} to have them written to the storage device as well.
+ * Each record carries its CRC32, so a record torn by a crash is ignored, and the authority falls back to its defaults.
+ * A file must be opened by a single process; open it through {@link #open(java.io.File)} to share the instance in the process.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class MappedSyncStateStore implements SyncStateStore {
+    public static final String TAG = MappedSyncStateStore.class.getSimpleName();
+    public static final String DEFAULT_FILE_NAME = "eligor_sync_state";
+    public static final int MAX_RECORD_SIZE = 4096;
+    private static final int MAGIC = 0x454c5331; // "ELS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int DEFAULT_RECORD_SIZE = 256;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int OFFSET_CRC = 0;
+    private static final int OFFSET_FLAGS = 4;
+    private static final int OFFSET_AUTHORITY_LENGTH = 6;
+    private static final int OFFSET_PERIOD = 8;
+    private static final int OFFSET_FINGERPRINT = 12;
+    private static final int OFFSET_EXTRAS_LENGTH = 20;
+    private static final int OFFSET_AUTHORITY = 22; // followed by the extras
+    private static final int MAX_AUTHORITY_LENGTH = DEFAULT_RECORD_SIZE - OFFSET_AUTHORITY;
+    private static final int FLAG_IN_USE = 1;
+    private static final int FLAG_HAS_ENABLED = 1 << 1;
+    private static final int FLAG_ENABLED = 1 << 2;
+    private static final int FLAG_HAS_FINGERPRINT = 1 << 3;
+    private static final int FLAG_HAS_EXTRAS = 1 << 4;
+    private static final Map<String, MappedSyncStateStore> sInstances = new HashMap<String, MappedSyncStateStore>();
+    private final File mFile;
+    private final Map<String, Integer> mSlots;
+    private final LinkedList<Integer> mFreeSlots;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mBuffer;
+    private int mRecordSize;
+    private int mCapacity;
+
+    private MappedSyncStateStore(File file) throws IOException {
+        mFile = file;
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mSlots = new HashMap<String, Integer>();
+        mFreeSlots = new LinkedList<Integer>();
+        try {
+            load();
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the store on the file, or returns the instance already opened on it.
+     * @param file the file in the private storage of the app, created if missing.
+     * @return the store.
+     * @throws java.io.IOException if the file is not accessible.
+     */
+    public static @Nonnull MappedSyncStateStore open(@Nonnull File file) throws IOException {
+        String path = file.getAbsolutePath();
+        synchronized (sInstances) {
+            MappedSyncStateStore store = sInstances.get(path);
+            if (store == null) {
+                store = new MappedSyncStateStore(file);
+                sInstances.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Opens the store on {@link #DEFAULT_FILE_NAME} in the files directory of the app.
+     * @param context the context.
+     * @return the store.
+     * @throws java.io.IOException if the file is not accessible.
+     */
+    public static @Nonnull MappedSyncStateStore getDefault(@Nonnull Context context) throws IOException {
+        return open(new File(context.getFilesDir(), DEFAULT_FILE_NAME));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized @Nonnull SyncState get(@Nonnull String authority) {
+        Integer slot = mSlots.get(authority);
+        return slot == null ? SyncState.EMPTY : readState(slot);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws java.lang.IllegalArgumentException if the authority is longer than the record can hold.
+     */
+    @Override
+    public synchronized void put(@Nonnull String authority, @Nonnull SyncState state) {
+        if (state.isEmpty()) {
+            remove(authority);
+            return;
+        }
+        byte[] name = encode(authority);
+        byte[] extras = state.getEncodedExtras();
+        if (extras != null && OFFSET_AUTHORITY + name.length + extras.length > MAX_RECORD_SIZE) {
+            Log.w(TAG, "extras of " + authority + " are too large to keep. only their fingerprint is kept.");
+            extras = null;
+        }
+        int required = OFFSET_AUTHORITY + name.length + (extras != null ? extras.length : 0);
+        if (required > mRecordSize) {
+            int recordSize = mRecordSize;
+            while (recordSize < required) {
+                recordSize *= 2;
+            }
+            Map<String, SyncState> states = readStates();
+            states.put(authority, SyncState.of(state.getPeriod(), state.getEnabled(),
+                    state.hasExtrasFingerprint(), state.getExtrasFingerprint(), extras));
+            try {
+                rewrite(recordSize, states);
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to enlarge the records of " + mFile, e);
+            }
+            return;
+        }
+        Integer slot = mSlots.get(authority);
+        if (slot == null) {
+            slot = allocate();
+            mSlots.put(authority, slot);
+        }
+        write(slot, encodeRecord(name, state, extras, mRecordSize));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void remove(@Nonnull String authority) {
+        Integer slot = mSlots.remove(authority);
+        if (slot != null) {
+            write(slot, new byte[mRecordSize]);
+            mFreeSlots.add(slot);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized @Nonnull Set<String> getAuthorities() {
+        return new HashSet<String>(mSlots.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void flush() {
+        mBuffer.force();
+    }
+
+    /**
+     * Flush and close the store. The instance is no longer usable.
+     */
+    public void close() {
+        synchronized (sInstances) {
+            sInstances.remove(mFile.getAbsolutePath());
+        }
+        synchronized (this) {
+            mBuffer.force();
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to close " + mFile, e);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        long length = mRandomAccessFile.length();
+        if (length >= HEADER_SIZE) {
+            map(length);
+            int version = mBuffer.getInt(4);
+            int recordSize = mBuffer.getInt(8);
+            if (mBuffer.getInt(0) == MAGIC && version == VERSION
+                    && recordSize >= DEFAULT_RECORD_SIZE && recordSize <= MAX_RECORD_SIZE) {
+                mRecordSize = recordSize;
+                mCapacity = (int) Math.min(mBuffer.getInt(12), (length - HEADER_SIZE) / recordSize);
+                scan();
+                return;
+            }
+            Log.w(TAG, mFile + " is not a sync state store of this version. it is overwritten.");
+        }
+        rewrite(DEFAULT_RECORD_SIZE, new HashMap<String, SyncState>());
+    }
+
+    private void scan() throws IOException {
+        byte[] record = new byte[mRecordSize];
+        for (int slot = 0; slot < mCapacity; slot++) {
+            read(slot, record);
+            ByteBuffer wrapped = ByteBuffer.wrap(record);
+            int length = wrapped.getShort(OFFSET_AUTHORITY_LENGTH);
+            int extrasLength = wrapped.getChar(OFFSET_EXTRAS_LENGTH);
+            if ((record[OFFSET_FLAGS] & FLAG_IN_USE) == 0 || length <= 0 || length > MAX_AUTHORITY_LENGTH
+                    || OFFSET_AUTHORITY + length + extrasLength > mRecordSize
+                    || wrapped.getInt(OFFSET_CRC) != checksum(record)) {
+                mFreeSlots.add(slot);
+                continue;
+            }
+            String authority = new String(record, OFFSET_AUTHORITY, length, "UTF-8");
+            if (mSlots.containsKey(authority)) {
+                mFreeSlots.add(slot); // never written twice, but don't trust the file
+                continue;
+            }
+            mSlots.put(authority, slot);
+        }
+    }
+
+    private Map<String, SyncState> readStates() {
+        Map<String, SyncState> states = new HashMap<String, SyncState>();
+        for (Map.Entry<String, Integer> entry : mSlots.entrySet()) {
+            states.put(entry.getKey(), readState(entry.getValue()));
+        }
+        return states;
+    }
+
+    private SyncState readState(int slot) {
+        int offset = offsetOf(slot);
+        int flags = mBuffer.get(offset + OFFSET_FLAGS);
+        Boolean enabled = (flags & FLAG_HAS_ENABLED) != 0 ? (flags & FLAG_ENABLED) != 0 : null;
+        byte[] extras = null;
+        if ((flags & FLAG_HAS_EXTRAS) != 0) {
+            extras = new byte[mBuffer.getChar(offset + OFFSET_EXTRAS_LENGTH)];
+            ByteBuffer view = mBuffer.duplicate();
+            view.position(offset + OFFSET_AUTHORITY + mBuffer.getShort(offset + OFFSET_AUTHORITY_LENGTH));
+            view.get(extras);
+        }
+        return SyncState.of(mBuffer.getInt(offset + OFFSET_PERIOD), enabled,
+                (flags & FLAG_HAS_FINGERPRINT) != 0, mBuffer.getLong(offset + OFFSET_FINGERPRINT), extras);
+    }
+
+    /**
+     * Writes the states to a new file with the record size, and replaces the current file with it.
+     * The current file is left intact until the new one is complete.
+     */
+    private void rewrite(int recordSize, Map<String, SyncState> states) throws IOException {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < states.size()) {
+            capacity *= 2;
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(recordSize);
+            out.writeInt(capacity);
+            for (Map.Entry<String, SyncState> entry : states.entrySet()) {
+                SyncState state = entry.getValue();
+                out.write(encodeRecord(encode(entry.getKey()), state, state.getEncodedExtras(), recordSize));
+            }
+            out.setLength(HEADER_SIZE + (long) capacity * recordSize);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("failed to replace " + mFile);
+        }
+        mRandomAccessFile.close();
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRecordSize = recordSize;
+        mCapacity = capacity;
+        mSlots.clear();
+        mFreeSlots.clear();
+        map(HEADER_SIZE + (long) capacity * recordSize);
+        scan();
+    }
+
+    private int allocate() {
+        if (mFreeSlots.isEmpty()) {
+            int capacity = mCapacity * 2;
+            try {
+                map(HEADER_SIZE + (long) capacity * mRecordSize);
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to grow " + mFile, e);
+            }
+            for (int slot = mCapacity; slot < capacity; slot++) {
+                mFreeSlots.add(slot);
+            }
+            mCapacity = capacity;
+            mBuffer.putInt(12, capacity);
+        }
+        return mFreeSlots.removeFirst();
+    }
+
+    private void map(long size) throws IOException {
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void read(int slot, byte[] record) {
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offsetOf(slot));
+        view.get(record);
+    }
+
+    private void write(int slot, byte[] record) {
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offsetOf(slot));
+        view.put(record);
+    }
+
+    private int offsetOf(int slot) {
+        return HEADER_SIZE + slot * mRecordSize;
+    }
+
+    private static byte[] encodeRecord(byte[] name, SyncState state, byte[] extras, int recordSize) {
+        int flags = FLAG_IN_USE;
+        if (state.getEnabled() != null) {
+            flags |= FLAG_HAS_ENABLED | (state.getEnabled() ? FLAG_ENABLED : 0);
+        }
+        if (state.hasExtrasFingerprint()) {
+            flags |= FLAG_HAS_FINGERPRINT;
+        }
+        if (extras != null) {
+            flags |= FLAG_HAS_EXTRAS;
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.put(OFFSET_FLAGS, (byte) flags);
+        record.putShort(OFFSET_AUTHORITY_LENGTH, (short) name.length);
+        record.putInt(OFFSET_PERIOD, state.getPeriod());
+        record.putLong(OFFSET_FINGERPRINT, state.getExtrasFingerprint());
+        record.putChar(OFFSET_EXTRAS_LENGTH, (char) (extras != null ? extras.length : 0));
+        record.position(OFFSET_AUTHORITY);
+        record.put(name);
+        if (extras != null) {
+            record.put(extras);
+        }
+        record.putInt(OFFSET_CRC, checksum(record.array()));
+        return record.array();
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, OFFSET_FLAGS, record.length - OFFSET_FLAGS);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(String authority) {
+        byte[] name;
+        try {
+            name = authority.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        if (name.length == 0 || name.length > MAX_AUTHORITY_LENGTH) {
+            throw new IllegalArgumentException("authority must be 1 to " + MAX_AUTHORITY_LENGTH + " bytes: " + authority);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.content.ContentResolver;
+import android.content.SyncStatusObserver;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * In-memory cache of the master automatic sync setting.
+ * The value is read from the system at most once per settings change notification,
+ * so the callers may check it as often as they like without issuing a binder call each time.
+ * @see android.content.ContentResolver#getMasterSyncAutomatically()
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class MasterSyncState implements SyncStatusObserver {
+    private static final int STATE_UNKNOWN = 0;
+    private static final int STATE_ENABLED = 1;
+    private static final int STATE_DISABLED = 2;
+    private static final int STATE_MASK = 0x3;
+    private static final int GENERATION_SHIFT = 2;
+    private static final int GENERATION_MASK = 0xFFFFFFFF >>> GENERATION_SHIFT;
+    private static volatile MasterSyncState sInstance;
+    private final AtomicInteger mGeneration;
+    private final CopyOnWriteArrayList<Listener> mListeners;
+    private volatile int mCached;
+    private volatile Object mListenerHandle;
+    private int mLastNotified; // guarded by mListeners
+
+    private MasterSyncState() {
+        mGeneration = new AtomicInteger();
+        mListeners = new CopyOnWriteArrayList<Listener>();
+        mCached = STATE_UNKNOWN;
+        mLastNotified = STATE_UNKNOWN;
+    }
+
+    /**
+     * Returns a process wide instance of this class, as the master sync setting is process wide too.
+     * @return this instance.
+     */
+    public static MasterSyncState getInstance() {
+        MasterSyncState instance = sInstance;
+        if (instance == null) {
+            synchronized (MasterSyncState.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new MasterSyncState();
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Checks the settings whether the master automatic periodic sync is enabled or not on the phone.
+     * Only the first call after a settings change reaches the system server.
+     * @return true if enabled on the master setting, false otherwise.
+     */
+    public boolean isEnabled() {
+        ensureListening();
+        int generation = mGeneration.get() & GENERATION_MASK;
+        int cached = mCached;
+        if ((cached >>> GENERATION_SHIFT) == generation && (cached & STATE_MASK) != STATE_UNKNOWN) {
+            return (cached & STATE_MASK) == STATE_ENABLED;
+        }
+        boolean enabled = ContentResolver.getMasterSyncAutomatically();
+        // if the generation has moved on while we were asking, the next call simply asks again.
+        mCached = (generation << GENERATION_SHIFT) | (enabled ? STATE_ENABLED : STATE_DISABLED);
+        return enabled;
+    }
+
+    /**
+     * Drops the cached value so that the next {@link #isEnabled()} reads it from the system again.
+     */
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Register the listener to be notified when the master sync setting is turned on or off.
+     * The listener is called on the thread that delivers the settings change, so it should return quickly.
+     * @param listener the listener.
+     */
+    public void addListener(@Nonnull Listener listener) {
+        mListeners.addIfAbsent(listener);
+        ensureListening();
+    }
+
+    /**
+     * Unregister the listener.
+     * @param listener the listener.
+     */
+    public void removeListener(@Nonnull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Stops listening to the settings change and drops the cached value.
+     * The listener is registered again on the next {@link #isEnabled()}.
+     */
+    public void release() {
+        Object handle;
+        synchronized (this) {
+            handle = mListenerHandle;
+            mListenerHandle = null;
+        }
+        if (handle != null) {
+            ContentResolver.removeStatusChangeListener(handle);
+        }
+        invalidate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStatusChanged(int which) {
+        invalidate();
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        // any of the sync settings may have changed, so tell the listeners only if the master one has.
+        boolean enabled = isEnabled();
+        synchronized (mListeners) {
+            int state = enabled ? STATE_ENABLED : STATE_DISABLED;
+            if (mLastNotified == state) {
+                return;
+            }
+            mLastNotified = state;
+        }
+        for (Listener listener : mListeners) {
+            listener.onMasterSyncChanged(enabled);
+        }
+    }
+
+    private void ensureListening() {
+        if (mListenerHandle != null) {
+            return;
+        }
+        synchronized (this) {
+            if (mListenerHandle == null) {
+                mListenerHandle = ContentResolver.addStatusChangeListener(ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS, this);
+                // anything cached before we started listening may already be stale.
+                invalidate();
+            }
+        }
+    }
+
+    /**
+     * Observes the master sync setting.
+     */
+    public interface Listener {
+        /**
+         * Called when the master sync setting has been turned on or off.
+         * @param enabled true if the master sync is now enabled, false otherwise.
+         */
+        public void onMasterSyncChanged(boolean enabled);
+    }
+}
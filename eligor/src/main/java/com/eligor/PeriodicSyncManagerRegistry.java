@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Copy-on-write registry of the {@link com.eligor.IPeriodicSyncManager}s keyed by their authority.
+ * Readers always see an immutable snapshot, so iterating over the registered managers never needs a lock
+ * and never allocates, while writers publish a new snapshot atomically.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class PeriodicSyncManagerRegistry {
+    private static final IPeriodicSyncManager[] EMPTY = new IPeriodicSyncManager[0];
+    private final AtomicReference<Snapshot> mSnapshot;
+
+    /* package */ PeriodicSyncManagerRegistry() {
+        mSnapshot = new AtomicReference<Snapshot>(new Snapshot(EMPTY));
+    }
+
+    /**
+     * Register the manager, replacing the one already registered for the same authority.
+     * @param manager periodic sync manager to register.
+     * @return the manager that was replaced, or null if none was registered for the authority.
+     */
+    public @Nullable IPeriodicSyncManager register(@Nonnull IPeriodicSyncManager manager) {
+        String authority = manager.getAuthority();
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            IPeriodicSyncManager[] managers = current.mManagers;
+            int index = current.indexOf(authority);
+            IPeriodicSyncManager[] next;
+            if (index < 0) {
+                next = new IPeriodicSyncManager[managers.length + 1];
+                System.arraycopy(managers, 0, next, 0, managers.length);
+                next[managers.length] = manager;
+            } else {
+                next = managers.clone();
+                next[index] = manager;
+            }
+            if (mSnapshot.compareAndSet(current, new Snapshot(next))) {
+                return index < 0 ? null : managers[index];
+            }
+        }
+    }
+
+    /**
+     * Release the manager registered for the authority.
+     * @param authority the periodic sync manager is associated with.
+     * @return the manager that was removed, or null if none was registered for the authority.
+     */
+    public @Nullable IPeriodicSyncManager unregister(String authority) {
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            IPeriodicSyncManager[] managers = current.mManagers;
+            int index = current.indexOf(authority);
+            if (index < 0) {
+                return null;
+            }
+            IPeriodicSyncManager[] next = EMPTY;
+            if (managers.length > 1) {
+                next = new IPeriodicSyncManager[managers.length - 1];
+                System.arraycopy(managers, 0, next, 0, index);
+                System.arraycopy(managers, index + 1, next, index, managers.length - index - 1);
+            }
+            if (mSnapshot.compareAndSet(current, new Snapshot(next))) {
+                return managers[index];
+            }
+        }
+    }
+
+    /**
+     * Returns the manager registered for the authority.
+     * @param authority the periodic sync manager is associated with.
+     * @return periodic sync manager. <code>null</code> if not registered for the authority.
+     */
+    public @Nullable IPeriodicSyncManager get(String authority) {
+        return mSnapshot.get().mIndex.get(authority);
+    }
+
+    /**
+     * Returns the current snapshot of all registered managers.
+     * The returned array is shared and MUST NOT be modified by the caller.
+     * @return registered managers in the registration order.
+     */
+    public @Nonnull IPeriodicSyncManager[] managers() {
+        return mSnapshot.get().mManagers;
+    }
+
+    /**
+     * Returns the number of registered managers.
+     * @return the number of registered managers.
+     */
+    public int size() {
+        return mSnapshot.get().mManagers.length;
+    }
+
+    /**
+     * Immutable pair of the manager array and its authority index, published as a whole.
+     */
+    private static final class Snapshot {
+        private final IPeriodicSyncManager[] mManagers;
+        private final Map<String, IPeriodicSyncManager> mIndex;
+
+        private Snapshot(IPeriodicSyncManager[] managers) {
+            Map<String, IPeriodicSyncManager> index = new HashMap<String, IPeriodicSyncManager>(managers.length * 2);
+            for (IPeriodicSyncManager manager : managers) {
+                index.put(manager.getAuthority(), manager);
+            }
+            mManagers = managers;
+            mIndex = Collections.unmodifiableMap(index);
+        }
+
+        private int indexOf(String authority) {
+            IPeriodicSyncManager manager = mIndex.get(authority);
+            if (manager == null) {
+                return -1;
+            }
+            for (int i = 0; i < mManagers.length; i++) {
+                if (mManagers[i] == manager) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -15,47 +15,86 @@
 package com.eligor;
 
 import android.accounts.Account;
-import android.annotation.SuppressLint;
 import android.content.ContentResolver;
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.os.Build;
 import android.os.Bundle;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.annotation.Nonnull;
 
 /**
  * Concrete class that is an implementation of {@link com.eligor.IPeriodicSyncManager}.
  * This class holds sync preferences to determine if the sync should be applied or not.
  * So if the sync disabled on the preference, the periodic sync won't be applied, but the manual sync is still be enabled.
+ * The preferences are kept in a {@link com.eligor.SyncStateStore}, the {@link android.content.SharedPreferences} named after the authority by default.
+ * They are loaded on the first call that needs them, or ahead of it by {@link #prefetchState(java.util.concurrent.Executor)},
+ * that {@link com.eligor.Eligor} does on registration; enabling or disabling the sync never waits for them.
  * @author KeithYokoma
  * @since 1.1.0
  * @version 1.0.0
  */
 @SuppressWarnings("unused")
 public class PreferencedPeriodicSyncManager extends AbstractPeriodicSyncManager {
-    private static final String KEY_PERIOD = "period";
-    private static final String KEY_ENABLED = "enabled";
     private final boolean mDefaultEnabled;
-    private SharedPreferences mPreferences;
+    private final SyncStateStore mStore;
+    private final Object mStateLock = new Object();
+    private final Object mPendingLock = new Object();
+    private SyncState mState; // guarded by mStateLock, null until loaded
+    private boolean mLoaded; // guarded by mPendingLock
+    private boolean mLoadScheduled; // guarded by mPendingLock
+    private Boolean mPendingEnabled; // guarded by mPendingLock, the setting made before the state is loaded
+    private volatile Executor mPrefetchExecutor;
 
     /**
      * {@inheritDoc}
      */
     public PreferencedPeriodicSyncManager(Context context, @Nonnull Account account, @Nonnull String authority, @Nonnull FallbackRunnable fallbackRunnable, boolean defaultEnabled) {
+        this(account, authority, fallbackRunnable, defaultEnabled, new SharedPreferencesSyncStateStore(context));
+    }
+
+    /**
+     * Creates the manager that keeps its preferences in the store, e.g. {@link com.eligor.MappedSyncStateStore} shared by all of the managers.
+     * @param account the account.
+     * @param authority the authority of the {@link android.content.ContentProvider}.
+     * @param fallbackRunnable the fallback for the sync.
+     * @param defaultEnabled true if the sync is enabled until the first {@link #enableSync()} or {@link #disableSync()}.
+     * @param store the store of the preferences.
+     * @since 1.3.0
+     */
+    public PreferencedPeriodicSyncManager(@Nonnull Account account, @Nonnull String authority, @Nonnull FallbackRunnable fallbackRunnable, boolean defaultEnabled, @Nonnull SyncStateStore store) {
         super(account, authority, fallbackRunnable);
-        mPreferences = context.getSharedPreferences(authority, Context.MODE_PRIVATE);
+        mStore = store;
         mDefaultEnabled = defaultEnabled;
     }
 
+    /**
+     * Start loading the persisted preferences on the executor, so the first call that needs them doesn't read the disk on the caller thread.
+     * The executor is also used to persist {@link #enableSync()} and {@link #disableSync()} made before the load.
+     * @param executor the background executor.
+     * @since 1.3.0
+     */
+    @Override
+    public void prefetchState(@Nonnull Executor executor) {
+        mPrefetchExecutor = executor;
+        scheduleLoad();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void applySyncPeriod(int period) {
-        boolean enabled = mPreferences.getBoolean(KEY_ENABLED, mDefaultEnabled);
-        if (enabled) {
-            applyEdit(mPreferences.edit().putInt(KEY_PERIOD, period));
+        boolean apply;
+        synchronized (mStateLock) {
+            SyncState state = getState();
+            apply = state.isEnabled(mDefaultEnabled) && shouldApplySyncPeriod(period, null);
+            if (apply) {
+                putState(putSyncPeriod(state, period, null));
+            }
+        }
+        if (apply) {
             ContentResolver.addPeriodicSync(getAccount(), getAuthority(), new Bundle(), period);
         }
     }
@@ -65,9 +104,15 @@ public class PreferencedPeriodicSyncManager extends AbstractPeriodicSyncManager
      */
     @Override
     public void applySyncPeriod(int period, Bundle args) {
-        boolean enabled = mPreferences.getBoolean(KEY_ENABLED, mDefaultEnabled);
-        if (enabled) {
-            applyEdit(mPreferences.edit().putInt(KEY_PERIOD, period));
+        boolean apply;
+        synchronized (mStateLock) {
+            SyncState state = getState();
+            apply = state.isEnabled(mDefaultEnabled) && shouldApplySyncPeriod(period, args);
+            if (apply) {
+                putState(putSyncPeriod(state, period, args));
+            }
+        }
+        if (apply) {
             ContentResolver.addPeriodicSync(getAccount(), getAuthority(), args, period);
         }
     }
@@ -101,7 +146,7 @@ public class PreferencedPeriodicSyncManager extends AbstractPeriodicSyncManager
      */
     @Override
     public void enableSync() {
-        applyEdit(mPreferences.edit().putBoolean(KEY_ENABLED, true));
+        putEnabled(true);
         ContentResolver.setSyncAutomatically(getAccount(), getAuthority(), true);
     }
 
@@ -110,7 +155,7 @@ public class PreferencedPeriodicSyncManager extends AbstractPeriodicSyncManager
      */
     @Override
     public void disableSync() {
-        applyEdit(mPreferences.edit().putBoolean(KEY_ENABLED, false));
+        putEnabled(false);
         ContentResolver.setSyncAutomatically(getAccount(), getAuthority(), false);
     }
 
@@ -163,12 +208,165 @@ public class PreferencedPeriodicSyncManager extends AbstractPeriodicSyncManager
         return flag > FLAG_NOT_SYNCABLE; // according to the ContentResolver javadoc note.
     }
 
-    @SuppressLint("NewApi") // it's ok to suppress lint that we known which to call for the api version
-    private void applyEdit(SharedPreferences.Editor editor) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
-            editor.commit();
-        } else {
-            editor.apply();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSyncPeriod() {
+        return getState().getPeriod();
+    }
+
+    /**
+     * {@inheritDoc}
+     * All of the preference changes are written in a single put.
+     */
+    @Override
+    /* package */ void applyChanges(@Nonnull SyncSettingsEditor.Change change, int currentFlags) {
+        boolean applyPeriod;
+        synchronized (mStateLock) {
+            SyncState current = getState();
+            SyncState state = current;
+            if (change.mEnabled != null && change.mEnabled != current.isEnabled(mDefaultEnabled)) {
+                state = state.withEnabled(change.mEnabled);
+            }
+            applyPeriod = change.mHasPeriod && state.isEnabled(mDefaultEnabled) && shouldApplySyncPeriod(change.mPeriod, change.mArgs);
+            if (applyPeriod) {
+                state = putSyncPeriod(state, change.mPeriod, change.mArgs);
+            }
+            if (!state.equals(current)) {
+                putState(state);
+            }
+        }
+
+        if (change.isSyncableChanged(currentFlags)) {
+            ContentResolver.setIsSyncable(getAccount(), getAuthority(), change.mSyncable ? FLAG_SYNCABLE : FLAG_NOT_SYNCABLE);
+        }
+        if (change.isEnabledChanged(currentFlags)) {
+            ContentResolver.setSyncAutomatically(getAccount(), getAuthority(), change.mEnabled);
+        }
+        if (applyPeriod) {
+            ContentResolver.addPeriodicSync(getAccount(), getAuthority(), change.mArgs != null ? change.mArgs : new Bundle(), change.mPeriod);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The period is restored only if the sync is enabled on the preference, and its extra arguments have been persisted.
+     */
+    @Override
+    /* package */ SyncState restoreSyncPeriod() {
+        SyncState state = getState();
+        if (!state.isEnabled(mDefaultEnabled) || state.getPeriod() == PERIOD_UNKNOWN) {
+            return null;
+        }
+        Bundle extras = state.getExtras();
+        if (extras == null) {
+            return null; // persisted by the former version, or too large to keep
         }
+        ContentResolver.addPeriodicSync(getAccount(), getAuthority(), extras, state.getPeriod());
+        setSyncPeriod(state.getPeriod(), extras);
+        return state;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    /* package */ SyncStateStore getStateStore() {
+        return mStore;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The persisted state is used if any, so the diffing mode won't ask the system after the process restarts.
+     */
+    @Override
+    protected boolean isSyncPeriodApplied(int period, Bundle args) {
+        SyncState state = getState();
+        if (state.getPeriod() != PERIOD_UNKNOWN && state.hasExtrasFingerprint()) {
+            return state.getPeriod() == period && state.getExtrasFingerprint() == Bundles.fingerprint(args);
+        }
+        return super.isSyncPeriodApplied(period, args);
+    }
+
+    private SyncState putSyncPeriod(SyncState state, int period, Bundle args) {
+        setSyncPeriod(period, args);
+        return state.withPeriod(period, args);
+    }
+
+    private void putEnabled(boolean enabled) {
+        boolean loaded;
+        synchronized (mPendingLock) {
+            loaded = mLoaded;
+            if (!loaded) {
+                // nothing to read for this; leave it to the load, which persists it.
+                mPendingEnabled = enabled;
+            }
+        }
+        if (!loaded) {
+            scheduleLoad();
+            return;
+        }
+        synchronized (mStateLock) {
+            SyncState state = getState();
+            if (!Boolean.valueOf(enabled).equals(state.getEnabled())) {
+                putState(state.withEnabled(enabled));
+            }
+        }
+    }
+
+    /**
+     * Load the state on the prefetch executor, or on the caller thread if there's none.
+     */
+    private void scheduleLoad() {
+        Executor executor = mPrefetchExecutor;
+        synchronized (mPendingLock) {
+            if (mLoaded || mLoadScheduled) {
+                return;
+            }
+            mLoadScheduled = executor != null;
+        }
+        if (executor != null) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        getState();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // shut down along with Eligor; load by ourselves.
+            }
+        }
+        getState();
+    }
+
+    /**
+     * @return the state, loaded from the store on the first call. Waits for the load in progress on the prefetch executor, if any.
+     */
+    private SyncState getState() {
+        synchronized (mStateLock) {
+            if (mState == null) {
+                SyncState state = mStore.get(getAuthority());
+                Boolean pending;
+                synchronized (mPendingLock) {
+                    pending = mPendingEnabled;
+                    mPendingEnabled = null;
+                    mLoaded = true;
+                }
+                mState = state;
+                if (pending != null && !pending.equals(state.getEnabled())) {
+                    putState(state.withEnabled(pending));
+                }
+            }
+            return mState;
+        }
+    }
+
+    private void putState(SyncState state) {
+        // guarded by mStateLock
+        mState = state;
+        mStore.put(getAuthority(), state);
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * {@link com.eligor.FallbackRunnable} that reports the outcome of each run.
+ * The fallback runs of the authority are delivered to {@link #onPerformSyncForResult(android.os.Bundle)} instead of
+ * {@link #onPerformSync(android.os.Bundle)}, and the results drive the adaptive sync period of the authority.
+ * @see Eligor#setAdaptiveSyncPeriod(int, int)
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+public interface ResultFallbackRunnable extends FallbackRunnable {
+    /**
+     * Perform the sync by yourself, since the master sync is disabled, and tell what it has done.
+     * Throwing {@link com.eligor.RetryableSyncException} is the same as returning a {@link FallbackResult.ErrorClass#TRANSIENT} error.
+     * @param extras extra arguments of the sync request, may be null.
+     * @return the outcome of the run.
+     */
+    public @Nonnull FallbackResult onPerformSyncForResult(@Nullable Bundle extras);
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+/**
+ * Thrown from {@link com.eligor.FallbackRunnable#onPerformSync(android.os.Bundle)} to tell the failure is transient,
+ * e.g. a network error or a 5xx response, and the run should be tried again later.
+ * The run is retried with exponential backoff and jitter, see {@link com.eligor.FallbackExecutorConfig.Builder#setRetryBackoff(long, long, java.util.concurrent.TimeUnit)}.
+ * Any other exception is taken as permanent, and the run is not retried.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public class RetryableSyncException extends RuntimeException {
+    /**
+     * Retry after value that leaves the delay to the backoff.
+     */
+    public static final long NO_RETRY_AFTER = 0L;
+    private static final long serialVersionUID = 1L;
+    private final long mRetryAfterMillis;
+
+    public RetryableSyncException(String message) {
+        this(message, null, NO_RETRY_AFTER);
+    }
+
+    public RetryableSyncException(String message, Throwable cause) {
+        this(message, cause, NO_RETRY_AFTER);
+    }
+
+    /**
+     * @param message the detail message.
+     * @param cause the cause, may be null.
+     * @param retryAfterMillis the minimum delay before the retry, e.g. from the Retry-After header, or {@link #NO_RETRY_AFTER}.
+     */
+    public RetryableSyncException(String message, Throwable cause, long retryAfterMillis) {
+        super(message, cause);
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the minimum delay before the retry, or {@link #NO_RETRY_AFTER}.
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Base64;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link com.eligor.SyncStateStore} on the {@link android.content.SharedPreferences} named after each authority,
+ * that is the storage {@link com.eligor.PreferencedPeriodicSyncManager} has always used.
+ * The extra arguments are kept in the Base64 of their {@link com.eligor.BundleCodec} encoding.
+ * Since the preference files can't be enumerated, {@link #getAuthorities()} only knows the authorities accessed through this store.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class SharedPreferencesSyncStateStore implements SyncStateStore {
+    public static final String TAG = SharedPreferencesSyncStateStore.class.getSimpleName();
+    /* package */ static final String KEY_PERIOD = "period";
+    /* package */ static final String KEY_ENABLED = "enabled";
+    /* package */ static final String KEY_EXTRAS_FINGERPRINT = "extras_fingerprint";
+    /* package */ static final String KEY_EXTRAS = "extras";
+    private final Context mContext;
+    private final ConcurrentHashMap<String, SharedPreferences> mPreferences;
+    private final Set<SharedPreferences> mDirty; // guarded by itself
+
+    /* package */ SharedPreferencesSyncStateStore(@Nonnull Context context) {
+        mContext = context;
+        mPreferences = new ConcurrentHashMap<String, SharedPreferences>();
+        mDirty = new HashSet<SharedPreferences>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public @Nonnull SyncState get(@Nonnull String authority) {
+        return read(getPreferences(authority));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(@Nonnull String authority, @Nonnull SyncState state) {
+        SharedPreferences.Editor editor = edit(authority);
+        if (state.getPeriod() != AbstractPeriodicSyncManager.PERIOD_UNKNOWN) {
+            editor.putInt(KEY_PERIOD, state.getPeriod());
+        } else {
+            editor.remove(KEY_PERIOD);
+        }
+        if (state.getEnabled() != null) {
+            editor.putBoolean(KEY_ENABLED, state.getEnabled());
+        } else {
+            editor.remove(KEY_ENABLED);
+        }
+        if (state.hasExtrasFingerprint()) {
+            editor.putLong(KEY_EXTRAS_FINGERPRINT, state.getExtrasFingerprint());
+        } else {
+            editor.remove(KEY_EXTRAS_FINGERPRINT);
+        }
+        byte[] extras = state.getEncodedExtras();
+        if (extras != null) {
+            editor.putString(KEY_EXTRAS, Base64.encodeToString(extras, Base64.NO_WRAP));
+        } else {
+            editor.remove(KEY_EXTRAS);
+        }
+        applyEdit(editor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(@Nonnull String authority) {
+        applyEdit(edit(authority).remove(KEY_PERIOD).remove(KEY_ENABLED).remove(KEY_EXTRAS_FINGERPRINT).remove(KEY_EXTRAS));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public @Nonnull Set<String> getAuthorities() {
+        Set<String> authorities = new HashSet<String>();
+        for (String authority : mPreferences.keySet()) {
+            if (!get(authority).isEmpty()) {
+                authorities.add(authority);
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The edits are committed again, which waits for the writes {@link android.content.SharedPreferences.Editor#apply()} has queued.
+     */
+    @Override
+    public void flush() {
+        List<SharedPreferences> dirty;
+        synchronized (mDirty) {
+            dirty = new ArrayList<SharedPreferences>(mDirty);
+            mDirty.clear();
+        }
+        for (SharedPreferences preferences : dirty) {
+            preferences.edit().commit();
+        }
+    }
+
+    /**
+     * Reads the state from the preferences of an authority.
+     * @param preferences the preferences named after the authority.
+     * @return the state.
+     */
+    /* package */ static @Nonnull SyncState read(@Nonnull SharedPreferences preferences) {
+        byte[] extras = null;
+        String encoded = preferences.getString(KEY_EXTRAS, null);
+        if (encoded != null) {
+            try {
+                extras = Base64.decode(encoded, Base64.NO_WRAP);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "malformed extras in the preferences. they are ignored.", e);
+            }
+        }
+        return SyncState.of(preferences.getInt(KEY_PERIOD, AbstractPeriodicSyncManager.PERIOD_UNKNOWN),
+                preferences.contains(KEY_ENABLED) ? preferences.getBoolean(KEY_ENABLED, false) : null,
+                preferences.contains(KEY_EXTRAS_FINGERPRINT), preferences.getLong(KEY_EXTRAS_FINGERPRINT, 0L), extras);
+    }
+
+    private SharedPreferences.Editor edit(String authority) {
+        SharedPreferences preferences = getPreferences(authority);
+        synchronized (mDirty) {
+            mDirty.add(preferences);
+        }
+        return preferences.edit();
+    }
+
+    private SharedPreferences getPreferences(String authority) {
+        SharedPreferences preferences = mPreferences.get(authority);
+        if (preferences == null) {
+            preferences = mContext.getSharedPreferences(authority, Context.MODE_PRIVATE);
+            mPreferences.put(authority, preferences);
+        }
+        return preferences;
+    }
+
+    @SuppressLint("NewApi") // it's ok to suppress lint that we known which to call for the api version
+    /* package */ static void applyEdit(SharedPreferences.Editor editor) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
+            editor.commit();
+        } else {
+            editor.apply();
+        }
+    }
+}
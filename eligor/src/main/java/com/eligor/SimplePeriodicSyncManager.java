@@ -40,7 +40,11 @@ public class SimplePeriodicSyncManager extends AbstractPeriodicSyncManager {
      */
     @Override
     public void applySyncPeriod(int period) {
+        if (!shouldApplySyncPeriod(period, null)) {
+            return;
+        }
         ContentResolver.addPeriodicSync(getAccount(), getAuthority(), new Bundle(), period);
+        setSyncPeriod(period, null);
     }
 
     /**
@@ -48,7 +52,11 @@ public class SimplePeriodicSyncManager extends AbstractPeriodicSyncManager {
      */
     @Override
     public void applySyncPeriod(int period, Bundle args) {
+        if (!shouldApplySyncPeriod(period, args)) {
+            return;
+        }
         ContentResolver.addPeriodicSync(getAccount(), getAuthority(), args, period);
+        setSyncPeriod(period, args);
     }
 
     /**
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The incremental sync cursor of an authority, kept in a {@link com.eligor.SyncCursorStore}.
+ * Read the cursor, transfer the changes after it, and move it with {@link #compareAndSet(String, String)}:
+ * <pre>
+ * String since = cursor.get();
+ * String latest = transferChangesSince(since);
+ * if (!cursor.compareAndSet(since, latest)) {
+ *     // another run has synced in the meantime, and moved the cursor further.
+ * }
+ * </pre>
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class SyncCursor {
+    private final SyncCursorStore mStore;
+    private final String mAuthority;
+
+    /* package */ SyncCursor(@Nonnull SyncCursorStore store, @Nonnull String authority) {
+        mStore = store;
+        mAuthority = authority;
+    }
+
+    public @Nonnull String getAuthority() {
+        return mAuthority;
+    }
+
+    /**
+     * @return the current value, or null if never set; a full sync is needed then.
+     */
+    public @Nullable String get() {
+        return mStore.get(mAuthority);
+    }
+
+    /**
+     * See {@link com.eligor.SyncCursorStore#compareAndSet(String, String, String)}.
+     * @param expected the value read by {@link #get()}.
+     * @param update the new value, or null to clear the cursor.
+     * @return true if updated, false if the cursor has been updated by another one.
+     */
+    public boolean compareAndSet(@Nullable String expected, @Nullable String update) {
+        return mStore.compareAndSet(mAuthority, expected, update);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Durable store of the incremental sync cursors, one per authority.
+ * A cursor is an opaque string chosen by the sync implementation, e.g. the time or the change token of the last synced data,
+ * so that the next run transfers only the changes after it.
+ * The cursors are updated only by {@link #compareAndSet(String, String, String)}, so the concurrent runs of an authority,
+ * such as a fallback run and the system sync adapter, never move the cursor back.
+ * An update is appended to the file with its CRC32 and written to the storage device before it returns,
+ * so after a crash the cursor is either the old value or the new one, never a torn one.
+ * A file must be opened by a single process; open it through {@link #open(java.io.File)} to share the instance in the process.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class SyncCursorStore {
+    public static final String TAG = SyncCursorStore.class.getSimpleName();
+    public static final String DEFAULT_FILE_NAME = "eligor_sync_cursors";
+    private static final int MAGIC = 0x454c4331; // "ELC1"
+    private static final int MAX_RECORD_LENGTH = 256 * 1024;
+    private static final int COMPACTION_THRESHOLD = 256;
+    private static final Map<String, SyncCursorStore> sInstances = new HashMap<String, SyncCursorStore>();
+    private final File mFile;
+    private final Map<String, String> mCursors;
+    private FileOutputStream mOut;
+    private int mDeadCount;
+
+    private SyncCursorStore(File file) {
+        mFile = file;
+        mCursors = new HashMap<String, String>();
+    }
+
+    /**
+     * Opens the store on the file, or returns the instance already opened on it.
+     * The file is compacted to hold only the current cursors.
+     * @param file the file in the private storage of the app, created if missing.
+     * @return the store.
+     * @throws java.io.IOException if the file is not accessible.
+     */
+    public static @Nonnull SyncCursorStore open(@Nonnull File file) throws IOException {
+        String path = file.getAbsolutePath();
+        synchronized (sInstances) {
+            SyncCursorStore store = sInstances.get(path);
+            if (store == null) {
+                store = new SyncCursorStore(file);
+                store.replay();
+                store.rewrite();
+                sInstances.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Opens the store on {@link #DEFAULT_FILE_NAME} in the files directory of the app.
+     * @param context the context.
+     * @return the store.
+     * @throws java.io.IOException if the file is not accessible.
+     */
+    public static @Nonnull SyncCursorStore getDefault(@Nonnull Context context) throws IOException {
+        return open(new File(context.getFilesDir(), DEFAULT_FILE_NAME));
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the cursor of the authority.
+     */
+    public @Nonnull SyncCursor getCursor(@Nonnull String authority) {
+        return new SyncCursor(this, authority);
+    }
+
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the current cursor value, or null if never set.
+     */
+    public synchronized @Nullable String get(@Nonnull String authority) {
+        return mCursors.get(authority);
+    }
+
+    /**
+     * Sets the cursor to the update if it is still the expected value, and writes it to the storage device.
+     * Blocks until written, so call this off the main thread.
+     * @param authority the periodic sync manager is associated with.
+     * @param expected the value the caller has read, or null if never set.
+     * @param update the new value, or null to clear the cursor.
+     * @return true if updated, false if the cursor has been updated by another one.
+     * @throws java.lang.IllegalStateException if failed to write, or the store is closed. The cursor is left unchanged.
+     */
+    public synchronized boolean compareAndSet(@Nonnull String authority, @Nullable String expected, @Nullable String update) {
+        String current = mCursors.get(authority);
+        if (current == null ? expected != null : !current.equals(expected)) {
+            return false;
+        }
+        if (current == null ? update == null : current.equals(update)) {
+            return true;
+        }
+        if (mOut == null) {
+            throw new IllegalStateException("the cursor store is closed.");
+        }
+        byte[] record = encodeRecord(encode(authority, update));
+        try {
+            mOut.write(record);
+            mOut.getFD().sync();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to write the cursor of " + authority, e);
+        }
+        if (update == null) {
+            mCursors.remove(authority);
+        } else {
+            mCursors.put(authority, update);
+        }
+        mDeadCount++;
+        if (mDeadCount > COMPACTION_THRESHOLD && mDeadCount > mCursors.size() * 2) {
+            try {
+                rewrite();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to compact " + mFile + ". retried on the next update.", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the store. The instance is no longer usable.
+     */
+    public void close() {
+        synchronized (sInstances) {
+            sInstances.remove(mFile.getAbsolutePath());
+        }
+        synchronized (this) {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to close " + mFile, e);
+            }
+            mOut = null;
+        }
+    }
+
+    /**
+     * Reads the file, and takes the last value of each cursor. Stops at the first torn or corrupted record.
+     */
+    private void replay() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return; // nothing persisted
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                Log.w(TAG, mFile + " is not a sync cursor store. it is overwritten.");
+                return;
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    Log.w(TAG, "corrupted record in the sync cursor store. the rest is dropped.");
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    Log.w(TAG, "corrupted record in the sync cursor store. the rest is dropped.");
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                String authority = record.readUTF();
+                if (record.readBoolean()) {
+                    mCursors.put(authority, record.readUTF());
+                } else {
+                    mCursors.remove(authority);
+                }
+            }
+        } catch (EOFException ignored) {
+            // the end of the file, or a record torn by the death of the process
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces the file with the one holding only the current cursors. The new file is written aside and renamed,
+     * so the cursors are never lost half way.
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeInt(MAGIC);
+            for (Map.Entry<String, String> entry : mCursors.entrySet()) {
+                bytes.write(encodeRecord(encode(entry.getKey(), entry.getValue())));
+            }
+            out.write(bytes.toByteArray());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("failed to replace " + mFile);
+        }
+        if (mOut != null) {
+            mOut.close();
+        }
+        mOut = new FileOutputStream(mFile, true);
+        mDeadCount = 0;
+    }
+
+    private static byte[] encode(String authority, String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(authority);
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        } catch (UTFDataFormatException e) {
+            throw new IllegalArgumentException("the authority or the cursor is too long.", e);
+        } catch (IOException e) {
+            throw new AssertionError(e); // never happens on the memory
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeRecord(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(body);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Collapses bursts of the sync requests of an authority into one.
+ * The first request of an authority opens a window, the following requests in the window are merged into it,
+ * and the merged request is dispatched when the window closes.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class SyncRequestCoalescer {
+    public static final long NO_WINDOW = 0L;
+    private final SyncTimer mTimer;
+    private final Dispatcher mDispatcher;
+    private final ConcurrentHashMap<String, Long> mWindows;
+    private final Map<String, PendingRequest> mPendingRequests;
+    private volatile long mDefaultWindow = NO_WINDOW;
+    private volatile ExtrasMergePolicy mMergePolicy = ExtrasMergePolicy.UNION;
+    private boolean mShutdown; // guarded by mPendingRequests
+
+    /* package */ SyncRequestCoalescer(@Nonnull SyncTimer timer, @Nonnull Dispatcher dispatcher) {
+        mTimer = timer;
+        mDispatcher = dispatcher;
+        mWindows = new ConcurrentHashMap<String, Long>();
+        mPendingRequests = new HashMap<String, PendingRequest>();
+    }
+
+    public void setDefaultWindow(long windowMillis) {
+        mDefaultWindow = windowMillis;
+    }
+
+    public void setWindow(String authority, long windowMillis) {
+        mWindows.put(authority, windowMillis);
+    }
+
+    public void setMergePolicy(@Nonnull ExtrasMergePolicy policy) {
+        mMergePolicy = policy;
+    }
+
+    /**
+     * Offer the request to be coalesced.
+     * @param manager the manager to request the sync.
+     * @param args extra arguments of the request, may be null.
+     * @param enableFallback whether the fallback should run if the master sync is disabled.
+     * @return true if the request has been taken, false if the authority has no window and the caller should dispatch it by itself.
+     */
+    public boolean offer(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle args, boolean enableFallback) {
+        String authority = manager.getAuthority();
+        Long window = mWindows.get(authority);
+        long windowMillis = window != null ? window : mDefaultWindow;
+        if (windowMillis <= NO_WINDOW) {
+            return false;
+        }
+        Bundle copy = args != null ? new Bundle(args) : null;
+        synchronized (mPendingRequests) {
+            if (mShutdown) {
+                return false;
+            }
+            PendingRequest pending = mPendingRequests.get(authority);
+            if (pending != null && pending.mManager == manager) {
+                pending.mArgs = mMergePolicy.merge(pending.mArgs, copy);
+                pending.mEnableFallback |= enableFallback;
+                return true;
+            }
+            pending = new PendingRequest(manager, copy, enableFallback);
+            mPendingRequests.put(authority, pending);
+            mTimer.schedule(pending, windowMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Drop the pending request of the authority, if any.
+     * @param authority the periodic sync manager is associated with.
+     */
+    public void cancel(String authority) {
+        synchronized (mPendingRequests) {
+            mPendingRequests.remove(authority);
+        }
+    }
+
+    /**
+     * Dispatch all of the pending requests now, without waiting for their windows, and stop coalescing.
+     * The requests offered afterwards are left to the caller. Call this before {@link com.eligor.SyncTimer} is shut down.
+     * @return the number of the requests dispatched.
+     */
+    public int shutdown() {
+        List<PendingRequest> pending;
+        synchronized (mPendingRequests) {
+            mShutdown = true;
+            pending = new ArrayList<PendingRequest>(mPendingRequests.values());
+        }
+        for (PendingRequest request : pending) {
+            request.run();
+        }
+        return pending.size();
+    }
+
+    /**
+     * Dispatches the coalesced request.
+     */
+    /* package */ interface Dispatcher {
+        public void dispatch(@Nonnull IPeriodicSyncManager manager, @Nullable Bundle args, boolean enableFallback);
+    }
+
+    private final class PendingRequest implements Runnable {
+        private final IPeriodicSyncManager mManager;
+        private Bundle mArgs;
+        private boolean mEnableFallback;
+
+        private PendingRequest(IPeriodicSyncManager manager, Bundle args, boolean enableFallback) {
+            mManager = manager;
+            mArgs = args;
+            mEnableFallback = enableFallback;
+        }
+
+        @Override
+        public void run() {
+            Bundle args;
+            boolean enableFallback;
+            synchronized (mPendingRequests) {
+                if (mPendingRequests.get(mManager.getAuthority()) != this) {
+                    return; // cancelled
+                }
+                mPendingRequests.remove(mManager.getAuthority());
+                args = mArgs;
+                enableFallback = mEnableFallback;
+            }
+            mDispatcher.dispatch(mManager, args, enableFallback);
+        }
+    }
+}
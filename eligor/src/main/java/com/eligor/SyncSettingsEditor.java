@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Batch of sync settings changes, obtained by {@link Eligor#edit()}.
+ * The editor only records the desired state of each authority, and nothing is applied until {@link #commit()} or {@link #apply()}.
+ * On commit, the changes of the same authority are merged, the changes that match the current state are skipped,
+ * and each manager applies the rest of them at once.
+ * This class is not thread safe; use an editor from a single thread, and obtain a new one for each batch.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class SyncSettingsEditor {
+    public static final String TAG = SyncSettingsEditor.class.getSimpleName();
+    private final PeriodicSyncManagerRegistry mSyncManagers;
+    private final SyncStatusCache mStatusCache;
+    private final PeriodListener mPeriodListener;
+    private final Executor mExecutor;
+    private final int mDefaultPeriod;
+    private final Map<String, Change> mChanges;
+
+    /* package */ SyncSettingsEditor(@Nonnull PeriodicSyncManagerRegistry syncManagers, @Nonnull SyncStatusCache statusCache,
+                                     @Nonnull PeriodListener periodListener, @Nonnull Executor executor, int defaultPeriod) {
+        mSyncManagers = syncManagers;
+        mStatusCache = statusCache;
+        mPeriodListener = periodListener;
+        mExecutor = executor;
+        mDefaultPeriod = defaultPeriod;
+        mChanges = new LinkedHashMap<String, Change>();
+    }
+
+    /**
+     * Set the {@link android.content.ContentProvider} as syncable for all of the currently registered {@link com.eligor.IPeriodicSyncManager}.
+     * @return this editor.
+     */
+    public SyncSettingsEditor setSyncable() {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            setSyncable(manager.getAuthority());
+        }
+        return this;
+    }
+
+    /**
+     * Set the {@link android.content.ContentProvider} as syncable for the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @return this editor.
+     */
+    public SyncSettingsEditor setSyncable(String authority) {
+        obtain(authority).mSyncable = Boolean.TRUE;
+        return this;
+    }
+
+    /**
+     * Set the {@link android.content.ContentProvider} as not syncable for all of the currently registered {@link com.eligor.IPeriodicSyncManager}.
+     * @return this editor.
+     */
+    public SyncSettingsEditor setNotSyncable() {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            setNotSyncable(manager.getAuthority());
+        }
+        return this;
+    }
+
+    /**
+     * Set the {@link android.content.ContentProvider} as not syncable for the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @return this editor.
+     */
+    public SyncSettingsEditor setNotSyncable(String authority) {
+        obtain(authority).mSyncable = Boolean.FALSE;
+        return this;
+    }
+
+    /**
+     * Set sync setting as enabled for all of the currently registered {@link com.eligor.IPeriodicSyncManager}.
+     * @return this editor.
+     */
+    public SyncSettingsEditor enableSync() {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            enableSync(manager.getAuthority());
+        }
+        return this;
+    }
+
+    /**
+     * Set sync setting as enabled for the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @return this editor.
+     */
+    public SyncSettingsEditor enableSync(String authority) {
+        obtain(authority).mEnabled = Boolean.TRUE;
+        return this;
+    }
+
+    /**
+     * Set sync setting as disabled for all of the currently registered {@link com.eligor.IPeriodicSyncManager}.
+     * @return this editor.
+     */
+    public SyncSettingsEditor disableSync() {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            disableSync(manager.getAuthority());
+        }
+        return this;
+    }
+
+    /**
+     * Set sync setting as disabled for the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @return this editor.
+     */
+    public SyncSettingsEditor disableSync(String authority) {
+        obtain(authority).mEnabled = Boolean.FALSE;
+        return this;
+    }
+
+    /**
+     * Apply automatic sync period with default value for all of the currently registered {@link com.eligor.IPeriodicSyncManager}.
+     * @return this editor.
+     */
+    public SyncSettingsEditor applySyncPeriod() {
+        return applySyncPeriod(mDefaultPeriod, null);
+    }
+
+    /**
+     * Apply automatic sync period with the specified value in seconds for all of the currently registered {@link com.eligor.IPeriodicSyncManager}.
+     * @param period automatic sync period in seconds.
+     * @return this editor.
+     */
+    public SyncSettingsEditor applySyncPeriod(int period) {
+        return applySyncPeriod(period, null);
+    }
+
+    /**
+     * Apply automatic sync period with the specified value in seconds and extra arguments for all of the currently registered {@link com.eligor.IPeriodicSyncManager}.
+     * @param period automatic sync period in seconds.
+     * @param args extra arguments for the {@link android.content.AbstractThreadedSyncAdapter}.
+     * @return this editor.
+     */
+    public SyncSettingsEditor applySyncPeriod(int period, @Nullable Bundle args) {
+        for (IPeriodicSyncManager manager : mSyncManagers.managers()) {
+            applySyncPeriod(manager.getAuthority(), period, args);
+        }
+        return this;
+    }
+
+    /**
+     * Apply automatic sync period with the specified value in seconds for the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @param period automatic sync period in seconds.
+     * @return this editor.
+     */
+    public SyncSettingsEditor applySyncPeriod(String authority, int period) {
+        return applySyncPeriod(authority, period, null);
+    }
+
+    /**
+     * Apply automatic sync period with the specified value in seconds and extra arguments for the specified authority.
+     * @param authority the periodic sync manager is associated with.
+     * @param period automatic sync period in seconds.
+     * @param args extra arguments for the {@link android.content.AbstractThreadedSyncAdapter}.
+     * @return this editor.
+     */
+    public SyncSettingsEditor applySyncPeriod(String authority, int period, @Nullable Bundle args) {
+        Change change = obtain(authority);
+        change.mHasPeriod = true;
+        change.mPeriod = period;
+        change.mArgs = args;
+        return this;
+    }
+
+    /**
+     * Apply all of the recorded changes on the caller thread, and clear this editor.
+     */
+    public void commit() {
+        commit(drain());
+    }
+
+    /**
+     * Apply all of the recorded changes on a background thread, and clear this editor.
+     * The batches are applied in the order of the calls.
+     */
+    public void apply() {
+        final Map<String, Change> changes = drain();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                commit(changes);
+            }
+        });
+    }
+
+    private Change obtain(String authority) {
+        Change change = mChanges.get(authority);
+        if (change == null) {
+            change = new Change();
+            mChanges.put(authority, change);
+        }
+        return change;
+    }
+
+    private Map<String, Change> drain() {
+        Map<String, Change> changes = new LinkedHashMap<String, Change>(mChanges);
+        mChanges.clear();
+        return changes;
+    }
+
+    private void commit(Map<String, Change> changes) {
+        for (Map.Entry<String, Change> entry : changes.entrySet()) {
+            String authority = entry.getKey();
+            IPeriodicSyncManager manager = mSyncManagers.get(authority);
+            if (manager == null) {
+                Log.i(TAG, "unknown authority for the request. ensure to call registerPeriodicSyncManager(IPeriodicSyncManager) first.");
+                continue;
+            }
+            Change change = entry.getValue();
+            int currentFlags = mStatusCache.getAll(manager, change.statusFlags());
+            if (manager instanceof AbstractPeriodicSyncManager) {
+                ((AbstractPeriodicSyncManager) manager).applyChanges(change, currentFlags);
+            } else {
+                applyIndividually(manager, change, currentFlags);
+            }
+            mStatusCache.invalidate(authority, change.statusFlags());
+            if (change.mEnabled != null) {
+                mPeriodListener.onSyncEnabledChanged(manager, change.mEnabled);
+            }
+            if (change.mHasPeriod) {
+                mPeriodListener.onSyncPeriodApplied(manager, change.mPeriod, change.mArgs);
+            }
+        }
+    }
+
+    /**
+     * Apply the changes one by one through the {@link com.eligor.IPeriodicSyncManager} methods, skipping the ones that match the current state.
+     * @param manager the manager to apply the changes.
+     * @param change desired state of the authority.
+     * @param currentFlags current status of the authority, see {@link com.eligor.SyncStatusCache}.
+     */
+    /* package */ static void applyIndividually(IPeriodicSyncManager manager, Change change, int currentFlags) {
+        if (change.isSyncableChanged(currentFlags)) {
+            if (change.mSyncable) {
+                manager.setSyncable();
+            } else {
+                manager.setNotSyncable();
+            }
+        }
+        if (change.isEnabledChanged(currentFlags)) {
+            if (change.mEnabled) {
+                manager.enableSync();
+            } else {
+                manager.disableSync();
+            }
+        }
+        if (change.mHasPeriod) {
+            if (change.mArgs == null) {
+                manager.applySyncPeriod(change.mPeriod);
+            } else {
+                manager.applySyncPeriod(change.mPeriod, change.mArgs);
+            }
+        }
+    }
+
+    /**
+     * Notified when a manager has applied a sync period, to follow it with the fallback schedule and the adaptive period,
+     * and when the sync of a manager has been enabled or disabled, to arm or disarm the fallback schedule.
+     */
+    /* package */ interface PeriodListener {
+        public void onSyncPeriodApplied(@Nonnull IPeriodicSyncManager manager, int period, @Nullable Bundle args);
+
+        public void onSyncEnabledChanged(@Nonnull IPeriodicSyncManager manager, boolean enabled);
+    }
+
+    /**
+     * Desired state of an authority. null means the setting is left untouched.
+     */
+    /* package */ static final class Change {
+        /* package */ Boolean mSyncable;
+        /* package */ Boolean mEnabled;
+        /* package */ boolean mHasPeriod;
+        /* package */ int mPeriod;
+        /* package */ Bundle mArgs;
+
+        /* package */ boolean isSyncableChanged(int currentFlags) {
+            return mSyncable != null && mSyncable != ((currentFlags & SyncStatusCache.FLAG_SYNCABLE) != 0);
+        }
+
+        /* package */ boolean isEnabledChanged(int currentFlags) {
+            return mEnabled != null && mEnabled != ((currentFlags & SyncStatusCache.FLAG_ENABLED) != 0);
+        }
+
+        /* package */ int statusFlags() {
+            int flags = 0;
+            if (mSyncable != null) {
+                flags |= SyncStatusCache.FLAG_SYNCABLE;
+            }
+            if (mEnabled != null) {
+                flags |= SyncStatusCache.FLAG_ENABLED;
+            }
+            return flags;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Persisted sync settings of an authority, kept in a {@link com.eligor.SyncStateStore}.
+ * Each of the settings may be unknown, that is, never persisted. Instances are immutable; the with* methods return a modified copy.
+ * The extra arguments applied with the period are held in the encoding of {@link com.eligor.BundleCodec}, and decoded on demand.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class SyncState {
+    public static final String TAG = SyncState.class.getSimpleName();
+    /**
+     * The state that knows nothing.
+     */
+    public static final SyncState EMPTY = new SyncState(AbstractPeriodicSyncManager.PERIOD_UNKNOWN, null, false, 0L, null);
+    private final int mPeriod;
+    private final Boolean mEnabled;
+    private final boolean mHasExtrasFingerprint;
+    private final long mExtrasFingerprint;
+    private final byte[] mExtras; // encoded, null if unknown
+
+    private SyncState(int period, Boolean enabled, boolean hasExtrasFingerprint, long extrasFingerprint, byte[] extras) {
+        mPeriod = period;
+        mEnabled = enabled;
+        mHasExtrasFingerprint = hasExtrasFingerprint;
+        mExtrasFingerprint = extrasFingerprint;
+        mExtras = extras;
+    }
+
+    /**
+     * @return the applied period in seconds, or {@link SyncStatus#PERIOD_UNKNOWN}.
+     */
+    public int getPeriod() {
+        return mPeriod;
+    }
+
+    /**
+     * @return the enabled setting, or null if unknown.
+     */
+    public @Nullable Boolean getEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @param defaultEnabled the value if unknown.
+     * @return the enabled setting.
+     */
+    public boolean isEnabled(boolean defaultEnabled) {
+        return mEnabled != null ? mEnabled : defaultEnabled;
+    }
+
+    /**
+     * @return true if the fingerprint of the extra arguments applied with the period is known.
+     */
+    public boolean hasExtrasFingerprint() {
+        return mHasExtrasFingerprint;
+    }
+
+    /**
+     * @return the fingerprint of the extra arguments applied with the period, see {@link com.eligor.Bundles#fingerprint(android.os.Bundle)}.
+     */
+    public long getExtrasFingerprint() {
+        return mExtrasFingerprint;
+    }
+
+    /**
+     * @return true if the extra arguments applied with the period are known.
+     */
+    public boolean hasExtras() {
+        return mExtras != null;
+    }
+
+    /**
+     * @return a new copy of the extra arguments applied with the period, or null if unknown or unreadable.
+     */
+    public @Nullable Bundle getExtras() {
+        if (mExtras == null) {
+            return null;
+        }
+        try {
+            Bundle extras = BundleCodec.decode(mExtras);
+            return extras != null ? extras : new Bundle();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to decode the persisted extras.", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return a copy of the extra arguments in the encoding of {@link com.eligor.BundleCodec}, for the {@link com.eligor.SyncStateStore} implementations,
+     * or null if unknown.
+     */
+    public @Nullable byte[] getEncodedExtras() {
+        return mExtras != null ? mExtras.clone() : null;
+    }
+
+    /**
+     * @return true if nothing is known.
+     */
+    public boolean isEmpty() {
+        return mPeriod == AbstractPeriodicSyncManager.PERIOD_UNKNOWN && mEnabled == null && !mHasExtrasFingerprint && mExtras == null;
+    }
+
+    /**
+     * The extra arguments are not known by the returned state. See {@link #withPeriod(int, android.os.Bundle)} to keep them as well.
+     * @param period the applied period in seconds.
+     * @param extrasFingerprint the fingerprint of the extra arguments applied with the period.
+     * @return the copy of this state with the period.
+     */
+    public @Nonnull SyncState withPeriod(int period, long extrasFingerprint) {
+        return new SyncState(period, mEnabled, true, extrasFingerprint, null);
+    }
+
+    /**
+     * The extra arguments are kept if they only hold the values {@link com.eligor.BundleCodec} supports, otherwise only their fingerprint is.
+     * The fingerprint is not kept either if it is not stable across processes, see {@link com.eligor.Bundles#isFingerprintStable(android.os.Bundle)},
+     * so the diffing mode asks the system instead of comparing with a fingerprint that never matches after a restart.
+     * @param period the applied period in seconds.
+     * @param extras the extra arguments applied with the period, may be null.
+     * @return the copy of this state with the period.
+     */
+    public @Nonnull SyncState withPeriod(int period, @Nullable Bundle extras) {
+        if (!Bundles.isFingerprintStable(extras)) {
+            return new SyncState(period, mEnabled, false, 0L, null);
+        }
+        return new SyncState(period, mEnabled, true, Bundles.fingerprint(extras), BundleCodec.encode(extras));
+    }
+
+    /**
+     * @param enabled the enabled setting.
+     * @return the copy of this state with the enabled setting.
+     */
+    public @Nonnull SyncState withEnabled(boolean enabled) {
+        return new SyncState(mPeriod, enabled, mHasExtrasFingerprint, mExtrasFingerprint, mExtras);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SyncState)) {
+            return false;
+        }
+        SyncState other = (SyncState) o;
+        return mPeriod == other.mPeriod
+                && (mEnabled == null ? other.mEnabled == null : mEnabled.equals(other.mEnabled))
+                && mHasExtrasFingerprint == other.mHasExtrasFingerprint
+                && mExtrasFingerprint == other.mExtrasFingerprint
+                && Arrays.equals(mExtras, other.mExtras);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mPeriod;
+        result = 31 * result + (mEnabled == null ? 0 : mEnabled.hashCode());
+        result = 31 * result + (mHasExtrasFingerprint ? 1 : 0);
+        result = 31 * result + (int) (mExtrasFingerprint ^ (mExtrasFingerprint >>> 32));
+        result = 31 * result + Arrays.hashCode(mExtras);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncState{period=" + mPeriod + ", enabled=" + mEnabled
+                + ", extrasFingerprint=" + (mHasExtrasFingerprint ? Long.toHexString(mExtrasFingerprint) : "unknown")
+                + ", extras=" + (mExtras != null ? mExtras.length + " bytes" : "unknown") + "}";
+    }
+
+    /**
+     * Restores a state from its persisted fields, for the {@link com.eligor.SyncStateStore} implementations.
+     * @param period the period, or {@link SyncStatus#PERIOD_UNKNOWN}.
+     * @param enabled the enabled setting, or null if unknown.
+     * @param hasExtrasFingerprint true if the fingerprint is known.
+     * @param extrasFingerprint the fingerprint.
+     * @return the state.
+     */
+    public static @Nonnull SyncState of(int period, @Nullable Boolean enabled, boolean hasExtrasFingerprint, long extrasFingerprint) {
+        return of(period, enabled, hasExtrasFingerprint, extrasFingerprint, null);
+    }
+
+    /**
+     * Restores a state from its persisted fields, for the {@link com.eligor.SyncStateStore} implementations.
+     * @param period the period, or {@link SyncStatus#PERIOD_UNKNOWN}.
+     * @param enabled the enabled setting, or null if unknown.
+     * @param hasExtrasFingerprint true if the fingerprint is known.
+     * @param extrasFingerprint the fingerprint.
+     * @param encodedExtras the extra arguments obtained by {@link #getEncodedExtras()}, or null if unknown.
+     * @return the state.
+     */
+    public static @Nonnull SyncState of(int period, @Nullable Boolean enabled, boolean hasExtrasFingerprint, long extrasFingerprint,
+                                        @Nullable byte[] encodedExtras) {
+        return new SyncState(period, enabled, hasExtrasFingerprint, hasExtrasFingerprint ? extrasFingerprint : 0L,
+                encodedExtras != null ? encodedExtras.clone() : null);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Moves the sync settings persisted by the former versions of {@link com.eligor.PreferencedPeriodicSyncManager},
+ * one {@link android.content.SharedPreferences} per authority, into a {@link com.eligor.SyncStateStore}.
+ * Migrate before the managers are created on the store, e.g. on the first launch after the upgrade.
+ * The migrated preferences are cleared, so migrating again is harmless, although it reads the preference files again.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class SyncStateMigrator {
+    private SyncStateMigrator() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Migrate the settings of the authorities from their preferences into the store.
+     * A state the store already holds is kept, and the one in the preferences is discarded.
+     * The store is flushed before the preferences are cleared, so the settings always have a durable copy.
+     * Blocks until done, so call this off the main thread.
+     * @param context the context.
+     * @param store the destination.
+     * @param authorities the authorities to migrate.
+     * @return the number of the authorities migrated.
+     */
+    public static int migrateFromPreferences(@Nonnull Context context, @Nonnull SyncStateStore store, @Nonnull String... authorities) {
+        int migrated = 0;
+        List<SharedPreferences> moved = new ArrayList<SharedPreferences>(authorities.length);
+        for (String authority : authorities) {
+            SharedPreferences preferences = context.getSharedPreferences(authority, Context.MODE_PRIVATE);
+            SyncState state = SharedPreferencesSyncStateStore.read(preferences);
+            if (state.isEmpty()) {
+                continue;
+            }
+            if (store.get(authority).isEmpty()) {
+                store.put(authority, state);
+                migrated++;
+            }
+            moved.add(preferences);
+        }
+        if (moved.isEmpty()) {
+            return migrated;
+        }
+        store.flush();
+        for (SharedPreferences preferences : moved) {
+            SharedPreferencesSyncStateStore.applyEdit(preferences.edit()
+                    .remove(SharedPreferencesSyncStateStore.KEY_PERIOD)
+                    .remove(SharedPreferencesSyncStateStore.KEY_ENABLED)
+                    .remove(SharedPreferencesSyncStateStore.KEY_EXTRAS_FINGERPRINT)
+                    .remove(SharedPreferencesSyncStateStore.KEY_EXTRAS));
+        }
+        return migrated;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Storage of the persisted sync settings of the authorities, used by {@link com.eligor.PreferencedPeriodicSyncManager}.
+ * The implementations must be thread safe.
+ * @see com.eligor.MappedSyncStateStore
+ * @see com.eligor.WriteBehindSyncStateStore
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+public interface SyncStateStore {
+    /**
+     * @param authority the periodic sync manager is associated with.
+     * @return the state of the authority, or {@link SyncState#EMPTY} if nothing is persisted.
+     */
+    public @Nonnull SyncState get(@Nonnull String authority);
+
+    /**
+     * Replace the state of the authority.
+     * @param authority the periodic sync manager is associated with.
+     * @param state the new state.
+     */
+    public void put(@Nonnull String authority, @Nonnull SyncState state);
+
+    /**
+     * Forget the state of the authority.
+     * @param authority the periodic sync manager is associated with.
+     */
+    public void remove(@Nonnull String authority);
+
+    /**
+     * @return the authorities that have a state in this store.
+     */
+    public @Nonnull Set<String> getAuthorities();
+
+    /**
+     * Write the states put so far to the storage device. Blocks until done, so call this off the main thread.
+     */
+    public void flush();
+}
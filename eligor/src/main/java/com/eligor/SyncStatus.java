@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.accounts.Account;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable record of the sync status of an authority, taken by {@link Eligor#snapshot()}.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class SyncStatus {
+    /**
+     * Returned by {@link #getSyncPeriod()} if the period has not been applied yet, or the manager doesn't tell it.
+     */
+    public static final int PERIOD_UNKNOWN = AbstractPeriodicSyncManager.PERIOD_UNKNOWN;
+    private final Account mAccount;
+    private final String mAuthority;
+    private final int mFlags;
+    private final int mSyncPeriod;
+    private final long mLastFallbackRun;
+
+    /* package */ SyncStatus(@Nonnull Account account, @Nonnull String authority, int flags, int syncPeriod, long lastFallbackRun) {
+        mAccount = account;
+        mAuthority = authority;
+        mFlags = flags;
+        mSyncPeriod = syncPeriod;
+        mLastFallbackRun = lastFallbackRun;
+    }
+
+    /**
+     * @return the account associated with the sync.
+     */
+    public @Nonnull Account getAccount() {
+        return mAccount;
+    }
+
+    /**
+     * @return the provider authority of the sync.
+     */
+    public @Nonnull String getAuthority() {
+        return mAuthority;
+    }
+
+    /**
+     * @see com.eligor.IPeriodicSyncManager#isSyncable()
+     * @return true if syncable, false otherwise.
+     */
+    public boolean isSyncable() {
+        return (mFlags & SyncStatusCache.FLAG_SYNCABLE) != 0;
+    }
+
+    /**
+     * @see com.eligor.IPeriodicSyncManager#isSyncEnabled()
+     * @return true if enabled, false otherwise.
+     */
+    public boolean isSyncEnabled() {
+        return (mFlags & SyncStatusCache.FLAG_ENABLED) != 0;
+    }
+
+    /**
+     * @see com.eligor.IPeriodicSyncManager#isSyncActive()
+     * @return true if active, false otherwise.
+     */
+    public boolean isSyncActive() {
+        return (mFlags & SyncStatusCache.FLAG_ACTIVE) != 0;
+    }
+
+    /**
+     * @see com.eligor.IPeriodicSyncManager#isSyncPending()
+     * @return true if pending, false otherwise.
+     */
+    public boolean isSyncPending() {
+        return (mFlags & SyncStatusCache.FLAG_PENDING) != 0;
+    }
+
+    /**
+     * @see com.eligor.PreferencedPeriodicSyncManager#getSyncPeriod()
+     * @return the period in seconds, or {@link #PERIOD_UNKNOWN} if not applied yet,
+     *         or the manager is not derived from the managers of this library.
+     */
+    public int getSyncPeriod() {
+        return mSyncPeriod;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch when the fallback sync has finished for the last time, or 0 if never.
+     */
+    public long getLastFallbackRun() {
+        return mLastFallbackRun;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncStatus{authority=" + mAuthority
+                + ", syncable=" + isSyncable()
+                + ", enabled=" + isSyncEnabled()
+                + ", active=" + isSyncActive()
+                + ", pending=" + isSyncPending()
+                + ", period=" + mSyncPeriod
+                + ", lastFallbackRun=" + mLastFallbackRun + "}";
+    }
+}
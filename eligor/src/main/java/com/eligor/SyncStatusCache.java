@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.content.ContentResolver;
+import android.content.SyncStatusObserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * In-memory cache of the sync status of each registered {@link com.eligor.IPeriodicSyncManager}.
+ * The status of an authority is kept as a small bitset; each bit is asked to the manager on the first query,
+ * and from then on it is forgotten only when the system notifies us a change through {@link android.content.SyncStatusObserver},
+ * to be asked again on the next query.
+ * So polling the status costs a map lookup instead of a binder call per manager.
+ * Note that the status of a manager that is not backed by {@link android.content.ContentResolver} won't be notified,
+ * so such a manager is refreshed only when the status is invalidated explicitly.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class SyncStatusCache implements SyncStatusObserver {
+    public static final int FLAG_ENABLED = 1;
+    public static final int FLAG_ACTIVE = 1 << 1;
+    public static final int FLAG_PENDING = 1 << 2;
+    public static final int FLAG_SYNCABLE = 1 << 3;
+    public static final int FLAG_ALL = FLAG_ENABLED | FLAG_ACTIVE | FLAG_PENDING | FLAG_SYNCABLE;
+    private static final int KNOWN_SHIFT = 4;
+    private static final int OBSERVER_MASK = ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS
+            | ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE | ContentResolver.SYNC_OBSERVER_TYPE_PENDING;
+    private final ConcurrentHashMap<String, Entry> mEntries;
+    private volatile Object mListenerHandle;
+
+    /* package */ SyncStatusCache() {
+        mEntries = new ConcurrentHashMap<String, Entry>();
+    }
+
+    /**
+     * Returns the cached status bit of the manager, asking the manager only if the bit is not known yet.
+     * @param manager the manager to check.
+     * @param flag one of the FLAG_* constants.
+     * @return the status.
+     */
+    public boolean get(@Nonnull IPeriodicSyncManager manager, int flag) {
+        ensureListening();
+        Entry entry = mEntries.get(manager.getAuthority());
+        if (entry != null && entry.mManager == manager) {
+            int state = entry.mState;
+            if ((state & (flag << KNOWN_SHIFT)) != 0) {
+                return (state & flag) != 0;
+            }
+        }
+        return fill(manager, flag);
+    }
+
+    /**
+     * Returns several cached status bits of the manager at once, asking the manager only for the bits not known yet.
+     * @param manager the manager to check.
+     * @param flags combination of the FLAG_* constants.
+     * @return the bitset of the requested status.
+     */
+    public int getAll(@Nonnull IPeriodicSyncManager manager, int flags) {
+        ensureListening();
+        Entry entry = mEntries.get(manager.getAuthority());
+        if (entry != null && entry.mManager == manager) {
+            int state = entry.mState;
+            if (((state >>> KNOWN_SHIFT) & flags) == flags) {
+                return state & flags;
+            }
+        }
+        return fillAll(manager, flags);
+    }
+
+    /**
+     * Forget the status bits of the manager so that the next query asks the manager again.
+     * @param authority the periodic sync manager is associated with.
+     * @param flags combination of the FLAG_* constants.
+     */
+    public synchronized void invalidate(String authority, int flags) {
+        Entry entry = mEntries.get(authority);
+        if (entry != null) {
+            entry.mGeneration++;
+            entry.mState &= ~((flags << KNOWN_SHIFT) | flags);
+        }
+    }
+
+    /**
+     * Forget everything about the authority, e.g. when its manager is unregistered.
+     * @param authority the periodic sync manager is associated with.
+     */
+    public void remove(String authority) {
+        mEntries.remove(authority);
+    }
+
+    /**
+     * Stops listening to the status change and drops all of the cached status.
+     */
+    public void release() {
+        Object handle;
+        synchronized (this) {
+            handle = mListenerHandle;
+            mListenerHandle = null;
+            mEntries.clear();
+        }
+        if (handle != null) {
+            ContentResolver.removeStatusChangeListener(handle);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStatusChanged(int which) {
+        int flags = 0;
+        if ((which & ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS) != 0) {
+            flags |= FLAG_ENABLED | FLAG_SYNCABLE;
+        }
+        if ((which & ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE) != 0) {
+            flags |= FLAG_ACTIVE;
+        }
+        if ((which & ContentResolver.SYNC_OBSERVER_TYPE_PENDING) != 0) {
+            flags |= FLAG_PENDING;
+        }
+        refresh(flags);
+    }
+
+    /**
+     * Asks the manager for the bit outside of the lock, so a slow binder call never blocks the queries of the other authorities,
+     * and publishes the answer only if nothing has invalidated the entry in the meantime, or the answer may be stale.
+     */
+    private boolean fill(IPeriodicSyncManager manager, int flag) {
+        Entry entry;
+        int generation;
+        synchronized (this) {
+            entry = obtainEntry(manager);
+            int state = entry.mState;
+            if ((state & (flag << KNOWN_SHIFT)) != 0) {
+                return (state & flag) != 0; // filled by another thread while we were waiting for the lock
+            }
+            generation = entry.mGeneration;
+        }
+        boolean value = query(manager, flag);
+        synchronized (this) {
+            if (entry.mGeneration == generation && mEntries.get(manager.getAuthority()) == entry) {
+                entry.mState = (entry.mState & ~flag) | (flag << KNOWN_SHIFT) | (value ? flag : 0);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Same as {@link #fill(IPeriodicSyncManager, int)} for several bits.
+     */
+    private int fillAll(IPeriodicSyncManager manager, int flags) {
+        Entry entry;
+        int state;
+        int missing;
+        int generation;
+        synchronized (this) {
+            entry = obtainEntry(manager);
+            state = entry.mState;
+            missing = flags & ~(state >>> KNOWN_SHIFT);
+            if (missing == 0) {
+                return state & flags;
+            }
+            generation = entry.mGeneration;
+        }
+        int values = 0;
+        for (int flag = 1; flag <= missing; flag <<= 1) {
+            if ((missing & flag) != 0 && query(manager, flag)) {
+                values |= flag;
+            }
+        }
+        synchronized (this) {
+            if (entry.mGeneration == generation && mEntries.get(manager.getAuthority()) == entry) {
+                entry.mState = (entry.mState & ~missing) | (missing << KNOWN_SHIFT) | values;
+            }
+        }
+        return (state & flags & ~missing) | values;
+    }
+
+    private Entry obtainEntry(IPeriodicSyncManager manager) {
+        String authority = manager.getAuthority();
+        Entry entry = mEntries.get(authority);
+        if (entry == null || entry.mManager != manager) {
+            entry = new Entry(manager);
+            mEntries.put(authority, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Forget the bits that the notification is about, so the next queries ask the managers again.
+     * Nothing is asked here, since the notification may come in a burst and most of the bits may never be queried again.
+     */
+    private synchronized void refresh(int flags) {
+        for (Entry entry : mEntries.values()) {
+            entry.mGeneration++;
+            entry.mState &= ~((flags << KNOWN_SHIFT) | flags);
+        }
+    }
+
+    private void ensureListening() {
+        if (mListenerHandle != null) {
+            return;
+        }
+        synchronized (this) {
+            if (mListenerHandle == null) {
+                mListenerHandle = ContentResolver.addStatusChangeListener(OBSERVER_MASK, this);
+                // anything cached before we started listening may already be stale.
+                mEntries.clear();
+            }
+        }
+    }
+
+    private static boolean query(IPeriodicSyncManager manager, int flag) {
+        switch (flag) {
+            case FLAG_ENABLED:
+                return manager.isSyncEnabled();
+            case FLAG_ACTIVE:
+                return manager.isSyncActive();
+            case FLAG_PENDING:
+                return manager.isSyncPending();
+            case FLAG_SYNCABLE:
+                return manager.isSyncable();
+            default:
+                throw new IllegalArgumentException("unknown flag: " + flag);
+        }
+    }
+
+    /**
+     * Status bits of an authority. The lower bits hold the values and the upper bits tell which of them are known.
+     */
+    private static final class Entry {
+        private final IPeriodicSyncManager mManager;
+        private volatile int mState;
+        private int mGeneration; // guarded by the cache, bumped whenever the bits are forgotten
+
+        private Entry(IPeriodicSyncManager manager) {
+            mManager = manager;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Single timer thread shared by the delayed works of an {@link com.eligor.Eligor} instance.
+ * The tasks scheduled on this timer should be short, and hand heavy works over to other executors.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class SyncTimer {
+    public static final String TAG = SyncTimer.class.getSimpleName();
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    /* package */ SyncTimer() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new TimerThread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Run the task once after the delay.
+     * @param task the task to run.
+     * @param delayMillis the delay in milliseconds.
+     * @return the future to cancel the task.
+     */
+    public ScheduledFuture<?> schedule(@Nonnull Runnable task, long delayMillis) {
+        return mExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the timer. The tasks not started yet are discarded.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * The thread of the timer. The tasks on it must be short, since they delay all of the other tasks.
+     */
+    /* package */ static final class TimerThread extends Thread {
+        private TimerThread(Runnable runnable) {
+            super(runnable, TAG);
+        }
+    }
+}
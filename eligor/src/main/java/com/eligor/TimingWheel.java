@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Hierarchical timing wheel, after the timer wheel of the Linux kernel.
+ * The time is divided into ticks, and each of the {@link #LEVELS} levels has {@link #WHEEL_SIZE} slots,
+ * each slot of a level covering a whole turn of the level below. A timeout is put in the slot of the level that its
+ * remaining ticks fall in, and moved down a level each time the lower level has turned around.
+ * So adding and cancelling a timeout are O(1) regardless of the number of the timeouts, and the cost of the expiration is amortized
+ * over the ticks, instead of O(log n) for each operation on a priority queue.
+ * This class is not thread safe; the owner should guard it with its own lock.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+/* package */ final class TimingWheel {
+    public static final int WHEEL_BITS = 6;
+    public static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    public static final int LEVELS = 4;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long MAX_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+    private final long mTickMillis;
+    private final long mStartMillis;
+    private final Timeout[][] mSlots; // sentinel of the circular list of each slot
+    private final int[] mLevelSizes;
+    private long mCurrentTick; // the next tick to process
+    private int mSize;
+
+    /**
+     * @param tickMillis the resolution of the wheel in milliseconds.
+     * @param startMillis the time of the tick 0.
+     */
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        mTickMillis = tickMillis;
+        mStartMillis = startMillis;
+        mSlots = new Timeout[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int index = 0; index < WHEEL_SIZE; index++) {
+                Timeout sentinel = new Timeout(null, 0L);
+                sentinel.mPrev = sentinel;
+                sentinel.mNext = sentinel;
+                mSlots[level][index] = sentinel;
+            }
+        }
+        mLevelSizes = new int[LEVELS];
+    }
+
+    /**
+     * Add the task to be expired at the deadline. The task never expires before the deadline,
+     * and expires no later than a tick after the deadline.
+     * @param task the task.
+     * @param deadlineMillis the deadline, in the same time base as the start time.
+     * @return the handle to cancel the task.
+     */
+    public @Nonnull Timeout add(@Nonnull Runnable task, long deadlineMillis) {
+        long ticks = deadlineMillis - mStartMillis;
+        long expires = ticks <= 0 ? 0 : (ticks + mTickMillis - 1) / mTickMillis;
+        Timeout timeout = new Timeout(task, expires);
+        place(timeout);
+        mSize++;
+        return timeout;
+    }
+
+    /**
+     * Remove the timeout from the wheel.
+     * @param timeout the handle returned from {@link #add(Runnable, long)}.
+     * @return true if removed, false if already expired or cancelled.
+     */
+    public boolean cancel(@Nonnull Timeout timeout) {
+        if (timeout.mNext == null) {
+            return false;
+        }
+        unlink(timeout);
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Process all of the ticks up to the time, and collect the expired tasks.
+     * @param nowMillis the current time.
+     * @return the expired tasks in the order of the deadlines; the caller is responsible to run them.
+     */
+    public @Nonnull List<Runnable> advance(long nowMillis) {
+        List<Runnable> expired = new ArrayList<Runnable>();
+        long nowTick = toTick(nowMillis);
+        while (mCurrentTick <= nowTick) {
+            if (mSize == 0) {
+                mCurrentTick = nowTick + 1; // nothing to move around, skip the ticks at once
+                break;
+            }
+            int index = (int) (mCurrentTick & WHEEL_MASK);
+            if (index == 0) {
+                for (int level = 1; level < LEVELS; level++) {
+                    int levelIndex = (int) ((mCurrentTick >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+                    cascade(level, levelIndex);
+                    if (levelIndex != 0) {
+                        break;
+                    }
+                }
+            }
+            mCurrentTick++;
+            while (!isEmpty(0, index)) {
+                Timeout timeout = mSlots[0][index].mNext;
+                unlink(timeout);
+                mSize--;
+                expired.add(timeout.mTask);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the time when {@link #advance(long)} has something to do next, i.e. a timeout expires or is moved down a level.
+     * The levels are searched from the lowest one, and each level takes at most {@link #WHEEL_SIZE} steps,
+     * so the owner may sleep until then instead of waking up on every tick.
+     * @return the time, or {@link Long#MAX_VALUE} if the wheel is empty.
+     */
+    public long nextWakeMillis() {
+        if (mSize == 0) {
+            return Long.MAX_VALUE;
+        }
+        long tick = mCurrentTick;
+        int upperSize = mSize;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * WHEEL_BITS;
+            long stride = 1L << shift;
+            tick = (tick + stride - 1) & ~(stride - 1); // the first tick that this level is looked at
+            upperSize -= mLevelSizes[level];
+            if (mLevelSizes[level] == 0) {
+                continue;
+            }
+            for (int i = 0; i < WHEEL_SIZE; i++, tick += stride) {
+                int index = (int) ((tick >>> shift) & WHEEL_MASK);
+                // the turn of this level also moves the timeouts of the upper levels down.
+                if (!isEmpty(level, index) || (index == 0 && upperSize > 0)) {
+                    return mStartMillis + tick * mTickMillis;
+                }
+            }
+        }
+        throw new IllegalStateException("timeouts are lost"); // never happens as long as the sizes are right
+    }
+
+    /**
+     * @return the number of the timeouts in the wheel.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    private long toTick(long millis) {
+        long elapsed = millis - mStartMillis;
+        return elapsed < 0 ? -1 : elapsed / mTickMillis;
+    }
+
+    private boolean isEmpty(int level, int index) {
+        Timeout sentinel = mSlots[level][index];
+        return sentinel.mNext == sentinel;
+    }
+
+    private void place(Timeout timeout) {
+        long expires = timeout.mExpires;
+        long delta = expires - mCurrentTick;
+        if (delta < 0) {
+            expires = mCurrentTick; // overdue, expires on the next tick
+            delta = 0;
+        } else if (delta > MAX_TICKS) {
+            expires = mCurrentTick + MAX_TICKS; // parked at the far end, and placed again on the way down
+            delta = MAX_TICKS;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << ((level + 1) * WHEEL_BITS))) {
+            level++;
+        }
+        int index = (int) ((expires >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+        Timeout sentinel = mSlots[level][index];
+        timeout.mLevel = level;
+        timeout.mPrev = sentinel.mPrev;
+        timeout.mNext = sentinel;
+        sentinel.mPrev.mNext = timeout;
+        sentinel.mPrev = timeout;
+        mLevelSizes[level]++;
+    }
+
+    private void unlink(Timeout timeout) {
+        timeout.mPrev.mNext = timeout.mNext;
+        timeout.mNext.mPrev = timeout.mPrev;
+        timeout.mPrev = null;
+        timeout.mNext = null;
+        mLevelSizes[timeout.mLevel]--;
+    }
+
+    private void cascade(int level, int index) {
+        if (isEmpty(level, index)) {
+            return;
+        }
+        Timeout sentinel = mSlots[level][index];
+        Timeout timeout = sentinel.mNext;
+        // detach the whole list first, so that a timeout placed back in the same slot is not visited again.
+        sentinel.mPrev.mNext = null;
+        sentinel.mPrev = sentinel;
+        sentinel.mNext = sentinel;
+        while (timeout != null) {
+            Timeout next = timeout.mNext;
+            mLevelSizes[level]--;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    /**
+     * Handle of a task in the wheel.
+     */
+    /* package */ static final class Timeout {
+        private final Runnable mTask;
+        private final long mExpires;
+        private Timeout mPrev;
+        private Timeout mNext;
+        private int mLevel;
+
+        private Timeout(Runnable task, long expires) {
+            mTask = task;
+            mExpires = expires;
+        }
+
+        /**
+         * @return true if still waiting in the wheel.
+         */
+        public boolean isPending() {
+            return mNext != null;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2014 nohana, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.eligor;
+
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link com.eligor.SyncStateStore} that buffers the changes in memory, and writes them behind to another store.
+ * The changes made within the delay after the first one, by all of the managers sharing this store,
+ * are coalesced into a single write on a background thread, so a burst of settings changes costs a single durable write,
+ * and the last of the changes to an authority wins.
+ * The changes not written yet are lost if the process dies; call {@link #flush()} to write them immediately.
+ * {@link com.eligor.Eligor#destroy()} closes the stores of the registered managers, which flushes them and stops their writer threads.
+ * @since 1.3.0
+ * @version 1.0.0
+ */
+@SuppressWarnings("unused") // public API
+public final class WriteBehindSyncStateStore implements SyncStateStore {
+    public static final String TAG = WriteBehindSyncStateStore.class.getSimpleName();
+    public static final long DEFAULT_DELAY_MILLIS = 1000L;
+    private final SyncStateStore mDelegate;
+    private final long mDelayMillis;
+    private final Map<String, SyncState> mPending; // guarded by this; SyncState.EMPTY for the removal
+    private final Object mWriteLock = new Object();
+    private final ScheduledExecutorService mWriter;
+    private boolean mFlushScheduled; // guarded by this
+    private boolean mClosed; // guarded by this
+
+    /**
+     * Buffers the changes for {@link #DEFAULT_DELAY_MILLIS}.
+     * @param delegate the store to write the changes to.
+     */
+    public WriteBehindSyncStateStore(@Nonnull SyncStateStore delegate) {
+        this(delegate, DEFAULT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param delegate the store to write the changes to.
+     * @param delayMillis how long the changes are buffered after the first one, in milliseconds.
+     * @throws java.lang.IllegalArgumentException if the delay is negative.
+     */
+    public WriteBehindSyncStateStore(@Nonnull SyncStateStore delegate, long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delay must not be negative: " + delayMillis);
+        }
+        mDelegate = delegate;
+        mDelayMillis = delayMillis;
+        mPending = new LinkedHashMap<String, SyncState>();
+        mWriter = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * The change not written yet is returned if any.
+     */
+    @Override
+    public @Nonnull SyncState get(@Nonnull String authority) {
+        synchronized (this) {
+            SyncState pending = mPending.get(authority);
+            if (pending != null) {
+                return pending;
+            }
+        }
+        return mDelegate.get(authority);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(@Nonnull String authority, @Nonnull SyncState state) {
+        enqueue(authority, state);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(@Nonnull String authority) {
+        enqueue(authority, SyncState.EMPTY);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public @Nonnull Set<String> getAuthorities() {
+        Set<String> authorities = new HashSet<String>(mDelegate.getAuthorities());
+        synchronized (this) {
+            for (Map.Entry<String, SyncState> entry : mPending.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    authorities.remove(entry.getKey());
+                } else {
+                    authorities.add(entry.getKey());
+                }
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * Write the buffered changes to the delegate store, and flush it.
+     * Blocks until done, so call this off the main thread.
+     */
+    @Override
+    public void flush() {
+        synchronized (mWriteLock) {
+            writeBehind();
+            mDelegate.flush();
+        }
+    }
+
+    /**
+     * Write the buffered changes, and stop the writer thread.
+     * The changes made afterwards are written through to the delegate store immediately.
+     * Blocks until done, so call this off the main thread.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        flush();
+        mWriter.shutdown();
+    }
+
+    /**
+     * @return the number of the authorities that have a change not written yet.
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    private void enqueue(String authority, SyncState state) {
+        boolean closed;
+        synchronized (this) {
+            mPending.put(authority, state);
+            closed = mClosed;
+            if (!closed) {
+                if (mFlushScheduled) {
+                    return;
+                }
+                mFlushScheduled = true;
+            }
+        }
+        if (closed) {
+            flush();
+            return;
+        }
+        mWriter.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WriteBehindSyncStateStore.this) {
+                    mFlushScheduled = false;
+                }
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "failed to write the sync states behind.", e);
+                }
+            }
+        }, mDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the buffered changes to the delegate store. The changes stay visible to {@link #get(String)} until written,
+     * and the ones made during the write are left for the next one. Called with mWriteLock held.
+     * A change that fails to be written is kept as well, so it is neither lost nor hidden behind the stale value of the delegate,
+     * and the following changes are still written.
+     */
+    private void writeBehind() {
+        Map<String, SyncState> changes;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            changes = new LinkedHashMap<String, SyncState>(mPending);
+        }
+        for (Map.Entry<String, SyncState> entry : changes.entrySet()) {
+            String authority = entry.getKey();
+            SyncState state = entry.getValue();
+            try {
+                if (state.isEmpty()) {
+                    mDelegate.remove(authority);
+                } else {
+                    mDelegate.put(authority, state);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "failed to write the sync state of " + authority + ". it is kept to be written again.", e);
+                continue;
+            }
+            synchronized (this) {
+                if (mPending.get(authority) == state) {
+                    mPending.remove(authority);
+                }
+            }
+        }
+    }
+}